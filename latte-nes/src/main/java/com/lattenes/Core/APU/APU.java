@@ -18,20 +18,38 @@
 
 package com.lattenes.Core.APU;
 
+import java.nio.ByteBuffer;
+
+// The APU runs lazily on CPU cycles. Nothing happens per cycle, runUntil
+// jumps from one event to the next: a channel timer stepping its sequence
+// or the frame sequencer reaching a quarter or half frame. Every change
+// of the mixed output goes into a band-limited step buffer at the cycle
+// it happened.
 public class APU {
-    private long cycles = 0;
+    private static final double CPU_CLOCK = 1789773.0;
+
+    // Frame sequencer events in CPU cycles from the start of the sequence.
+    // Both modes share the first four, the 5-step mode does nothing at the
+    // fourth and adds a fifth.
+    private static final int[] FRAME_EVENTS = { 7457, 14913, 22371, 29829, 37281 };
+    private static final int FOUR_STEP_PERIOD = 29830;
+    private static final int FIVE_STEP_PERIOD = 37282;
+
+    // CPU cycle the APU has been run up to
+    private long time = 0;
+    private int frameStep = 0;
+    private long frameSequenceStart = 0;
+    private long nextFrameEvent = FRAME_EVENTS[0];
 
     private PulseSequencer pulse1Seq;
     private ChannelLengthCounter pulse1LengthCtr;
     private FrequencySweeper pulse1Sweep;
     private Envelope pulse1Envelope;
-    private WaveSampler pulse1Synth;
 
     private PulseSequencer pulse2Seq;
     private ChannelLengthCounter pulse2LengthCtr;
     private FrequencySweeper pulse2Sweep;
     private Envelope pulse2Envelope;
-    private WaveSampler pulse2Synth;
 
     private NoiseSequencer noiseSeq;
     private ChannelLengthCounter noiseLengthCtr;
@@ -41,13 +59,32 @@ public class APU {
     private ChannelLengthCounter triangleLengthCtr;
     private LinearCounter triangleLinearCtr;
 
-    private long frameCount = 0;
-    private double triangleIntermediate = 0;
-    private double pulse1Sample = 0;
-    private double pulse2Sample = 0;
-    private double noiseSample = 0;
-    private double triangleSample = 0;
-    private double globalTime = 0;
+    private DMCSequencer dmcSeq;
+    // CPU cycle at which the DMC needs its next sample byte
+    private long dmcFetchCycle = Long.MAX_VALUE;
+
+    private NESFilters filters;
+    private int sampleRate = 44100;
+    private double rateRatio = 1.0;
+
+    private static final int MIX_SCALE = 1 << 14;
+
+    // Nonlinear mixer as lookup tables in MIX_SCALE units, pulse indexed by
+    // pulse1 + pulse2 and tnd by 3 * triangle + 2 * noise + dmc
+    private static final int[] PULSE_TABLE = new int[31];
+    private static final int[] TND_TABLE = new int[203];
+
+    static {
+        for (int i = 1; i < PULSE_TABLE.length; i++) {
+            PULSE_TABLE[i] = (int) (95.52 / (8128.0 / i + 100.0) * MIX_SCALE);
+        }
+        for (int i = 1; i < TND_TABLE.length; i++) {
+            TND_TABLE[i] = (int) (163.67 / (24329.0 / i + 100.0) * MIX_SCALE);
+        }
+    }
+    private BlipBuffer blip;
+    private int mix = 0;
+
     private boolean pulse1ChanEnabled = true;
     private boolean pulse2ChanEnabled = true;
     private boolean noiseChanEnabled = true;
@@ -62,18 +99,21 @@ public class APU {
         192, 24, 72, 26, 16, 28, 32, 30
     };
 
+    private static final short DMC_RATES[] = {
+        428, 380, 340, 320, 286, 254, 226, 214,
+        190, 160, 142, 128, 106, 84, 72, 54
+    };
+
     public APU() {
         pulse1Seq = new PulseSequencer();
         pulse1LengthCtr = new ChannelLengthCounter();
         pulse1Sweep = new FrequencySweeper();
         pulse1Envelope = new Envelope();
-        pulse1Synth = new WaveSampler();
 
         pulse2Seq = new PulseSequencer();
         pulse2LengthCtr = new ChannelLengthCounter();
         pulse2Sweep = new FrequencySweeper();
         pulse2Envelope = new Envelope();
-        pulse2Synth = new WaveSampler();
 
         noiseSeq = new NoiseSequencer();
         noiseLengthCtr = new ChannelLengthCounter();
@@ -83,36 +123,38 @@ public class APU {
         triangleLengthCtr = new ChannelLengthCounter();
         triangleLinearCtr = new LinearCounter();
 
+        dmcSeq = new DMCSequencer();
+        dmcSeq.reload = DMC_RATES[0];
+
         triangleSeq.lengthCounter = triangleLengthCtr;
         triangleSeq.linearCounter = triangleLinearCtr;
 
         pulse1Sweep.pulseSeq = pulse1Seq;
         pulse2Sweep.pulseSeq = pulse2Seq;
 
-        NESFilters.init();
+        filters = new NESFilters(sampleRate);
+        blip = new BlipBuffer(CPU_CLOCK, sampleRate, 1024);
 
         noiseSeq.sequence = 0xDBDB;
+        noiseSeq.reload = 4;
     }
 
+    // The caller runs the APU up to the current cycle first
     public void writeToAPUFromCPU(int address, byte value) {
         switch (address) {
             case 0x4000:
                 switch ((value & 0xC0) >> 6) {
                     case 0x00:
                         pulse1Seq.newSequence = 0b01000000;
-                        pulse1Synth.duty = 0.125;
                         break;
                     case 0x01:
                         pulse1Seq.newSequence = 0b01100000;
-                        pulse1Synth.duty = 0.250;
                         break;
                     case 0x02:
                         pulse1Seq.newSequence = 0b01111000;
-                        pulse1Synth.duty = 0.500;
                         break;
                     case 0x03:
                         pulse1Seq.newSequence = 0b10011111;
-                        pulse1Synth.duty = 0.750;
                         break;
                 }
                 pulse1Seq.sequence = pulse1Seq.newSequence;
@@ -132,7 +174,7 @@ public class APU {
                 break;
             case 0x4003:
                 pulse1Seq.reload = (pulse1Seq.reload & 0x00FF) | ((value & 0x07) << 8);
-                pulse1Seq.timer = pulse1Seq.reload;
+                pulse1Seq.restart(time);
                 pulse1LengthCtr.counter = lengthTable[(value & 0xF8) >> 3];
                 pulse1Seq.sequence = pulse1Seq.newSequence;
                 pulse1Envelope.start = true;
@@ -141,19 +183,15 @@ public class APU {
                 switch ((value & 0xC0) >> 6) {
                     case 0x00:
                         pulse2Seq.newSequence = 0b01000000;
-                        pulse2Synth.duty = 0.125;
                         break;
                     case 0x01:
                         pulse2Seq.newSequence = 0b01100000;
-                        pulse2Synth.duty = 0.250;
                         break;
                     case 0x02:
                         pulse2Seq.newSequence = 0b01111000;
-                        pulse2Synth.duty = 0.500;
                         break;
                     case 0x03:
                         pulse2Seq.newSequence = 0b10011111;
-                        pulse2Synth.duty = 0.750;
                         break;
                 }
                 pulse2Seq.sequence = pulse2Seq.newSequence;
@@ -173,7 +211,7 @@ public class APU {
                 break;
             case 0x4007:
                 pulse2Seq.reload = (pulse2Seq.reload & 0x00FF) | ((value & 0x07) << 8);
-                pulse2Seq.timer = pulse2Seq.reload;
+                pulse2Seq.restart(time);
                 pulse2Seq.sequence = pulse2Seq.newSequence;
                 pulse2LengthCtr.counter = lengthTable[(value & 0xF8) >> 3];
                 pulse2Envelope.start = true;
@@ -188,7 +226,7 @@ public class APU {
                 break;
             case 0x400B:
                 triangleSeq.reload = (triangleSeq.reload & 0x00FF) | ((value & 0x07) << 8);
-                triangleSeq.timer = triangleSeq.reload;
+                triangleSeq.restart(time);
                 triangleLengthCtr.counter = lengthTable[(value & 0xF8) >> 3];
                 triangleLinearCtr.reloadTimer = true;
                 break;
@@ -198,6 +236,7 @@ public class APU {
                 noiseEnvelope.volume = (value & 0x0F);
                 break;
             case 0x400E:
+                noiseSeq.mode = (value & 0x80) == 0x80;
                 switch (value & 0xF) {
                     case 0: noiseSeq.reload = 4; break;
                     case 1: noiseSeq.reload = 8; break;
@@ -217,6 +256,23 @@ public class APU {
                     case 15: noiseSeq.reload = 4068; break;
                 }
                 break;
+            case 0x4010:
+                dmcSeq.irqEnabled = (value & 0x80) == 0x80;
+                dmcSeq.loop = (value & 0x40) == 0x40;
+                dmcSeq.reload = DMC_RATES[value & 0x0F];
+                if (!dmcSeq.irqEnabled) {
+                    dmcSeq.irqFlag = false;
+                }
+                break;
+            case 0x4011:
+                dmcSeq.level = value & 0x7F;
+                break;
+            case 0x4012:
+                dmcSeq.sampleAddress = 0xC000 + ((value & 0xFF) << 6);
+                break;
+            case 0x4013:
+                dmcSeq.sampleLength = ((value & 0xFF) << 4) + 1;
+                break;
             case 0x4015:
                 pulse1ChanEnabled = (value & 0x01) == 0x01;
                 pulse2ChanEnabled = (value & 0x02) == 0x02;
@@ -227,6 +283,13 @@ public class APU {
                 if (!pulse2ChanEnabled) pulse2LengthCtr.counter = 0;
                 if (!noiseChanEnabled) noiseLengthCtr.counter = 0;
                 if (!triangleChanEnabled) triangleLengthCtr.counter = 0;
+
+                dmcSeq.irqFlag = false;
+                if ((value & 0x10) == 0) {
+                    dmcSeq.bytesRemaining = 0;
+                } else if (dmcSeq.bytesRemaining == 0) {
+                    dmcSeq.restartSample();
+                }
                 break;
             case 0x400F:
                 pulse1Envelope.start = true;
@@ -235,141 +298,301 @@ public class APU {
                 noiseLengthCtr.counter = lengthTable[(value & 0xF8) >> 3];
                 break;
             case 0x4017:
+                // Restarts the sequence, the 5-step one clocks everything
+                // right away
                 fiveStep = (value & 0x80) == 0x80;
+                frameStep = 0;
+                frameSequenceStart = time;
+                nextFrameEvent = time + FRAME_EVENTS[0];
+                if (fiveStep) {
+                    clockQuarterFrame();
+                    clockHalfFrame();
+                }
                 break;
         }
+
+        pulse1Sweep.track();
+        pulse2Sweep.track();
+        updateMix();
+        updateDMCFetch();
     }
 
-    public void clock() {
-        boolean quarterFrame = false;
-        boolean halfFrame = false;
-        globalTime += 0.33333333 / 1789773.0;
+    // Status read from $4015, there is no frame interrupt so bit 6 stays
+    // clear. The caller runs the APU up to the current cycle first.
+    public int readStatus() {
+        int status = 0;
+        if (pulse1LengthCtr.counter > 0) status |= 0x01;
+        if (pulse2LengthCtr.counter > 0) status |= 0x02;
+        if (triangleLengthCtr.counter > 0) status |= 0x04;
+        if (noiseLengthCtr.counter > 0) status |= 0x08;
+        if (dmcSeq.bytesRemaining > 0) status |= 0x10;
+        if (dmcSeq.irqFlag) status |= 0x80;
+        return status;
+    }
 
-        if (cycles % 6 == 0) {
-            frameCount++;
+    // The DMC needs a byte once its buffer is empty. A full buffer is
+    // taken at the end of the current output cycle, which is known in
+    // advance, so the fetch cycle only changes on a write or a fetch.
+    private void updateDMCFetch() {
+        if (dmcSeq.bytesRemaining == 0) {
+            dmcFetchCycle = Long.MAX_VALUE;
+        } else if (dmcSeq.bufferEmpty) {
+            dmcFetchCycle = time;
+        } else {
+            long step = nextStep(dmcSeq, dmcActive());
+            dmcFetchCycle = step + (long) (dmcSeq.bitsRemaining - 1) * dmcSeq.period();
+        }
+    }
 
-            if (!fiveStep) {
-                if (frameCount == 3729) {
-                    quarterFrame = true;
-                }
+    // The DMC holds the IRQ line while its flag is set, writing $4015 or
+    // disabling the interrupt in $4010 acknowledges it
+    public boolean irqPending() {
+        return dmcSeq.irqFlag;
+    }
 
-                if (frameCount == 7457) {
-                    halfFrame = true;
-                    quarterFrame = true;
-                }
+    public long getDMCFetchCycle() {
+        return dmcFetchCycle;
+    }
 
-                if (frameCount == 11186) {
-                    quarterFrame = true;
-                }
+    public int getDMCAddress() {
+        return dmcSeq.currentAddress;
+    }
 
-                if (frameCount == 14916) {
-                    halfFrame = true;
-                    quarterFrame = true;
-                    frameCount = 0;
-                }
-            } else {
-                if (frameCount == 3729) {
-                    quarterFrame = true;
-                }
+    // Takes the byte System read from getDMCAddress, the APU is run up to
+    // the fetch cycle first
+    public void loadDMCSample(int value) {
+        dmcSeq.loadSample(value);
+        updateDMCFetch();
+    }
 
-                if (frameCount == 7457) {
-                    halfFrame = true;
-                    quarterFrame = true;
-                }
+    // Everything that affects future output. The filters only run when a
+    // sample is mixed and aren't included, run-ahead mutes the frames it
+    // throws away so they're never touched there.
+    // Bytes saveState writes
+    public int getStateSize() {
+        return Long.BYTES + Integer.BYTES + 2 * Long.BYTES + 5 + Integer.BYTES + Long.BYTES
+             + blip.getStateSize()
+             + pulse1Seq.getStateSize() + pulse1LengthCtr.getStateSize() + pulse1Sweep.getStateSize() + pulse1Envelope.getStateSize()
+             + pulse2Seq.getStateSize() + pulse2LengthCtr.getStateSize() + pulse2Sweep.getStateSize() + pulse2Envelope.getStateSize()
+             + noiseSeq.getStateSize() + noiseLengthCtr.getStateSize() + noiseEnvelope.getStateSize()
+             + triangleSeq.getStateSize() + triangleLengthCtr.getStateSize() + triangleLinearCtr.getStateSize()
+             + dmcSeq.getStateSize();
+    }
 
-                if (frameCount == 11186) {
-                    quarterFrame = true;
-                    halfFrame = false;
-                }
+    public void saveState(ByteBuffer state) {
+        state.putLong(time);
+        state.putInt(frameStep);
+        state.putLong(frameSequenceStart);
+        state.putLong(nextFrameEvent);
+        state.put((byte) (fiveStep ? 1 : 0));
+        state.put((byte) (pulse1ChanEnabled ? 1 : 0));
+        state.put((byte) (pulse2ChanEnabled ? 1 : 0));
+        state.put((byte) (noiseChanEnabled ? 1 : 0));
+        state.put((byte) (triangleChanEnabled ? 1 : 0));
+        state.putInt(mix);
+        state.putLong(dmcFetchCycle);
+        blip.saveState(state);
+
+        pulse1Seq.saveState(state);
+        pulse1LengthCtr.saveState(state);
+        pulse1Sweep.saveState(state);
+        pulse1Envelope.saveState(state);
+        pulse2Seq.saveState(state);
+        pulse2LengthCtr.saveState(state);
+        pulse2Sweep.saveState(state);
+        pulse2Envelope.saveState(state);
+        noiseSeq.saveState(state);
+        noiseLengthCtr.saveState(state);
+        noiseEnvelope.saveState(state);
+        triangleSeq.saveState(state);
+        triangleLengthCtr.saveState(state);
+        triangleLinearCtr.saveState(state);
+        dmcSeq.saveState(state);
+    }
 
-                if (frameCount == 14915) {
-                    quarterFrame = false;
-                }
+    public void loadState(ByteBuffer state) {
+        time = state.getLong();
+        frameStep = state.getInt();
+        frameSequenceStart = state.getLong();
+        nextFrameEvent = state.getLong();
+        fiveStep = state.get() == 1;
+        pulse1ChanEnabled = state.get() == 1;
+        pulse2ChanEnabled = state.get() == 1;
+        noiseChanEnabled = state.get() == 1;
+        triangleChanEnabled = state.get() == 1;
+        mix = state.getInt();
+        dmcFetchCycle = state.getLong();
+        blip.loadState(state);
+
+        pulse1Seq.loadState(state);
+        pulse1LengthCtr.loadState(state);
+        pulse1Sweep.loadState(state);
+        pulse1Envelope.loadState(state);
+        pulse2Seq.loadState(state);
+        pulse2LengthCtr.loadState(state);
+        pulse2Sweep.loadState(state);
+        pulse2Envelope.loadState(state);
+        noiseSeq.loadState(state);
+        noiseLengthCtr.loadState(state);
+        noiseEnvelope.loadState(state);
+        triangleSeq.loadState(state);
+        triangleLengthCtr.loadState(state);
+        triangleLinearCtr.loadState(state);
+        dmcSeq.loadState(state);
+    }
 
-                if (frameCount == 18640) {
-                    halfFrame = true;
-                    quarterFrame = true;
-                    frameCount = 0;
-                }
+    private void clockQuarterFrame() {
+        pulse1Envelope.clock(pulse1LengthCtr.halt);
+        pulse2Envelope.clock(pulse2LengthCtr.halt);
+        triangleLinearCtr.clock(true);
+        noiseEnvelope.clock(noiseLengthCtr.halt);
+    }
 
-                if (frameCount == 18641) {
-                    frameCount = 1;
-                    halfFrame = false;
-                    quarterFrame = false;
-                }
-            }
+    private void clockHalfFrame() {
+        pulse1LengthCtr.clock(pulse1ChanEnabled);
+        pulse2LengthCtr.clock(pulse2ChanEnabled);
+        triangleLengthCtr.clock(triangleChanEnabled);
+        noiseLengthCtr.clock(noiseChanEnabled);
+        pulse1Sweep.track();
+        pulse2Sweep.track();
+        pulse1Sweep.clock(0);
+        pulse2Sweep.clock(1);
+        pulse1Sweep.track();
+        pulse2Sweep.track();
+    }
 
-            if (quarterFrame) {
-                pulse1Envelope.clock(pulse1LengthCtr.halt);
-                pulse2Envelope.clock(pulse2LengthCtr.halt);
-                triangleLinearCtr.clock(true);
-                noiseEnvelope.clock(noiseLengthCtr.halt);
-            }
+    private void clockFrameSequencer() {
+        int lastStep = fiveStep ? 4 : 3;
+        if (!(fiveStep && frameStep == 3)) {
+            clockQuarterFrame();
+        }
+        if (frameStep == 1 || frameStep == lastStep) {
+            clockHalfFrame();
+        }
 
-            if (halfFrame) {
-                pulse1LengthCtr.clock(pulse1ChanEnabled);
-                pulse2LengthCtr.clock(pulse2ChanEnabled);
-                triangleLengthCtr.clock(triangleChanEnabled);
-                noiseLengthCtr.clock(noiseChanEnabled);
-                pulse1Sweep.clock(0);
-                pulse2Sweep.clock(1);
-            }
+        if (frameStep == lastStep) {
+            frameStep = 0;
+            frameSequenceStart += fiveStep ? FIVE_STEP_PERIOD : FOUR_STEP_PERIOD;
+        } else {
+            frameStep++;
+        }
+        nextFrameEvent = frameSequenceStart + FRAME_EVENTS[frameStep];
+    }
 
-            pulse1Seq.clock(pulse1ChanEnabled);
-            
-            pulse2Seq.clock(pulse2ChanEnabled);
+    private boolean pulseActive(PulseSequencer seq, ChannelLengthCounter lengthCtr,
+                                FrequencySweeper sweep, boolean enabled) {
+        return enabled && lengthCtr.counter > 0 && !sweep.mute && seq.reload >= 8;
+    }
 
-            noiseSeq.clock(noiseChanEnabled);
-            if (noiseLengthCtr.counter > 0 && noiseSeq.timer >= 8) {
-                noiseSample = (noiseSeq.output & 0x1) * (noiseEnvelope.out);
-            }
+    // Periods below 2 are far above hearing range and would step the
+    // sequence on nearly every cycle, the triangle holds its level there
+    private boolean triangleActive() {
+        return triangleChanEnabled && triangleLengthCtr.counter > 0
+            && triangleLinearCtr.timer > 0 && triangleSeq.reload >= 2;
+    }
 
-            triangleSeq.clock(triangleChanEnabled);
-            triangleSeq.clock(triangleChanEnabled);
-            triangleIntermediate = triangleSeq.triangleWave[(int) triangleSeq.sequence];
+    private boolean noiseActive() {
+        return noiseChanEnabled && noiseLengthCtr.counter > 0;
+    }
 
-            if (triangleLengthCtr.counter > 0 && triangleLinearCtr.timer > 0) {
-                triangleSample = triangleIntermediate;
-            } else {
-                triangleSample = 0;
-            }
-            
-            if (!pulse1ChanEnabled) pulse1Sample = 0;
-            if (!pulse2ChanEnabled) pulse2Sample = 0;
-            if (!noiseChanEnabled) noiseSample = 0;
-            if (!triangleChanEnabled) triangleSample = 0;
+    // Nothing changes once the DMC is silent with no bytes left to play
+    private boolean dmcActive() {
+        return !dmcSeq.silence || !dmcSeq.bufferEmpty || dmcSeq.bytesRemaining > 0;
+    }
+
+    // Silent channels aren't stepped, their timer restarts when they
+    // become audible again
+    private long nextStep(Sequencer seq, boolean active) {
+        if (!active) {
+            return Long.MAX_VALUE;
         }
-        pulse1Sweep.track();
-        pulse2Sweep.track();
-        cycles++;
+        if (seq.nextStep <= time) {
+            seq.restart(time);
+        }
+        return seq.nextStep;
     }
 
-    public short getSample() {
-        pulse1Sweep.track();
-        pulse2Sweep.track();
+    public void runUntil(long cycle) {
+        while (true) {
+            long next = nextFrameEvent;
+            next = Math.min(next, nextStep(pulse1Seq, pulseActive(pulse1Seq, pulse1LengthCtr, pulse1Sweep, pulse1ChanEnabled)));
+            next = Math.min(next, nextStep(pulse2Seq, pulseActive(pulse2Seq, pulse2LengthCtr, pulse2Sweep, pulse2ChanEnabled)));
+            next = Math.min(next, nextStep(triangleSeq, triangleActive()));
+            next = Math.min(next, nextStep(noiseSeq, noiseActive()));
+            next = Math.min(next, nextStep(dmcSeq, dmcActive()));
+            if (next > cycle) {
+                break;
+            }
 
-        pulse1Synth.freq = 1789773.0 / (16.0 * (double) ((pulse1Seq.reload + 1) & 0xFFFF));
-        pulse1Synth.amp = (pulse1Envelope.out + 1) / 16.0;
-        if (pulse1LengthCtr.counter > 0 && pulse1Seq.timer >= 8 && !pulse1Sweep.mute &&
-            pulse1ChanEnabled && pulse1Envelope.out > 2) {
-            pulse1Sample = pulse1Synth.sample(globalTime);
-        } else {
-            pulse1Sample = 0;
+            time = next;
+            if (nextFrameEvent == time) {
+                clockFrameSequencer();
+            }
+            if (pulse1Seq.nextStep == time) {
+                pulse1Seq.step();
+            }
+            if (pulse2Seq.nextStep == time) {
+                pulse2Seq.step();
+            }
+            if (triangleSeq.nextStep == time) {
+                triangleSeq.step();
+            }
+            if (noiseSeq.nextStep == time) {
+                noiseSeq.step();
+            }
+            if (dmcSeq.nextStep == time) {
+                dmcSeq.step();
+            }
+            updateMix();
         }
+        time = cycle;
+    }
 
-        pulse2Synth.freq = 1789773.0 / (16.0 * (double) ((pulse2Seq.reload + 1) & 0xFFFF));
-        pulse2Synth.amp = (pulse2Envelope.out + 1) / 16.0;
-        if (pulse2LengthCtr.counter > 0 && pulse2Seq.timer >= 8 && !pulse2Sweep.mute &&
-            pulse2ChanEnabled && pulse2Envelope.out > 2) {
-            pulse2Sample = pulse2Synth.sample(globalTime);
-        } else {
-            pulse2Sample = 0;
+    // Only a change of the mixed output goes into the buffer
+    private void updateMix() {
+        int pulse = 0;
+        if (pulse1Seq.output != 0 && pulseActive(pulse1Seq, pulse1LengthCtr, pulse1Sweep, pulse1ChanEnabled)) {
+            pulse += pulse1Envelope.out;
         }
+        if (pulse2Seq.output != 0 && pulseActive(pulse2Seq, pulse2LengthCtr, pulse2Sweep, pulse2ChanEnabled)) {
+            pulse += pulse2Envelope.out;
+        }
+        int triangle = triangleSeq.triangleWave[(int) triangleSeq.sequence];
+        int noise = (noiseSeq.sequence & 0x01) == 0 && noiseActive() ? noiseEnvelope.out : 0;
+        int dmc = dmcSeq.level;
+
+        int newMix = PULSE_TABLE[pulse] + TND_TABLE[3 * triangle + 2 * noise + dmc];
+        if (newMix != mix) {
+            blip.addDelta(time, newMix - mix);
+            mix = newMix;
+        }
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+        filters = new NESFilters(sampleRate);
+        blip.setRate(CPU_CLOCK, sampleRate * rateRatio);
+    }
+
+    // Rate control, samples come out ratio times faster than the sample
+    // rate while the filters stay tuned to it
+    public void setRateRatio(double ratio) {
+        rateRatio = ratio;
+        blip.setRate(CPU_CLOCK, sampleRate * ratio);
+    }
+
+    public boolean sampleDue(long cpuCycle) {
+        return blip.sampleDue(cpuCycle);
+    }
 
-        float pulseIntermediates = (float) (pulse1Sample - 0.8) + (float) (pulse2Sample - 0.8);
-        float otherIntermediates = 159.79f / (100.0f + 1.0f / ((float) noiseSample / 12241.0f + (float) triangleSample / 8227.0f));
-        float sample = 0.1f * pulseIntermediates + otherIntermediates;
-        sample = NESFilters.filter(sample) * 32767.0f;
+    public long cyclesUntilSample(long cpuCycle) {
+        return blip.clocksUntilSample(cpuCycle);
+    }
+
+    // Mixes the next output sample, run the APU up to its time first
+    public short getSample() {
+        float sample = blip.readSample() / (float) MIX_SCALE;
+        sample = filters.filter(sample) * 32767.0f;
         return (short) sample;
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core.APU;
+
+import java.nio.ByteBuffer;
+
+// Band-limited synthesis in the style of blip_buf. Channels report the
+// change of their output level at the clock it happens, each change is
+// spread over a few samples as a band-limited step and the samples are
+// summed back up when read. It's also the resampler: the time of the next
+// output sample is kept in 32.32 fixed point clocks and advanced by a
+// fixed point period, so nothing drifts however long it runs. Clock times
+// map to sample positions in 32.32 fixed point as well, the fraction
+// picks one of the kernel phases.
+public class BlipBuffer {
+    private static final int PHASE_BITS = 5;
+    private static final int PHASES = 1 << PHASE_BITS;
+    private static final int TAPS = 16;
+    private static final int KERNEL_BITS = 15;
+    private static final long ONE = 1L << 32;
+
+    // KERNEL[phase][tap], every phase sums to exactly 1 << KERNEL_BITS so
+    // the running sum never drifts
+    private static final int[][] KERNEL = createKernel();
+
+    private final int[] buffer;
+    private final int mask;
+    // Samples per clock in 0.32 and clocks per sample in 32.32
+    private long factor;
+    private long clocksPerSample;
+
+    private int readIndex = 0;
+    private int sum = 0;
+    // Clock of the sample at readIndex, 32.32
+    private long nextSampleTime = 0;
+
+    // size is rounded up to a power of two, it must hold everything
+    // written ahead of the read position
+    public BlipBuffer(double clockRate, double sampleRate, int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, TAPS * 2) - 1) << 1;
+        buffer = new int[capacity];
+        mask = capacity - 1;
+        setRate(clockRate, sampleRate);
+    }
+
+    // Can be changed while running, the next sample keeps its time
+    public void setRate(double clockRate, double sampleRate) {
+        factor = (long) (sampleRate / clockRate * ONE + 0.5);
+        clocksPerSample = (long) (clockRate / sampleRate * ONE + 0.5);
+    }
+
+    private static int[][] createKernel() {
+        int[][] kernel = new int[PHASES][TAPS];
+        // Cut off a little below Nyquist, the window leaves some roll-off
+        double cutoff = 0.9;
+
+        for (int phase = 0; phase < PHASES; phase++) {
+            double[] taps = new double[TAPS];
+            double total = 0;
+            for (int tap = 0; tap < TAPS; tap++) {
+                // Centered between taps 7 and 8, moved right by the phase
+                double x = tap - (TAPS / 2 - 1) - (double) phase / PHASES - 0.5;
+                double sinc = x == 0 ? 1.0 : Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+                double window = 0.5 + 0.5 * Math.cos(Math.PI * x / (TAPS / 2));
+                taps[tap] = sinc * window;
+                total += taps[tap];
+            }
+
+            int sum = 0;
+            int largest = 0;
+            for (int tap = 0; tap < TAPS; tap++) {
+                kernel[phase][tap] = (int) Math.round(taps[tap] / total * (1 << KERNEL_BITS));
+                sum += kernel[phase][tap];
+                if (kernel[phase][tap] > kernel[phase][largest]) {
+                    largest = tap;
+                }
+            }
+            kernel[phase][largest] += (1 << KERNEL_BITS) - sum;
+        }
+
+        return kernel;
+    }
+
+    // time is in clocks and must not be before the last sample read
+    public void addDelta(long time, int delta) {
+        // Clocks from the next sample in 32.32, scaled to samples. Changes
+        // are placed one sample late, so anything since the last read
+        // still lands on or after readIndex.
+        long clocks = (time << 32) - nextSampleTime;
+        long position = (clocks >> 32) * factor + (((clocks & 0xFFFFFFFFL) * factor) >>> 32) + ONE;
+        if (position < 0) {
+            position = 0;
+        }
+
+        int[] phase = KERNEL[(int) (position >>> (32 - PHASE_BITS)) & (PHASES - 1)];
+        int index = readIndex + (int) (position >>> 32);
+        for (int tap = 0; tap < TAPS; tap++) {
+            buffer[(index + tap) & mask] += delta * phase[tap];
+        }
+    }
+
+    // True once the clock of the next sample has been reached. Times wrap
+    // around every 2^32 clocks, only their differences are used.
+    public boolean sampleDue(long time) {
+        return (time << 32) - nextSampleTime >= 0;
+    }
+
+    // Clocks from time until the next sample is due, 0 if it already is
+    public long clocksUntilSample(long time) {
+        long clocks = nextSampleTime - (time << 32);
+        return clocks <= 0 ? 0 : ((clocks - 1) >>> 32) + 1;
+    }
+
+    // Reads the next sample, the output lags the input by a little over
+    // half the kernel
+    public int readSample() {
+        nextSampleTime += clocksPerSample;
+        sum += buffer[readIndex & mask];
+        buffer[readIndex & mask] = 0;
+        readIndex++;
+        return sum >> KERNEL_BITS;
+    }
+
+    public int getStateSize() {
+        return buffer.length * 4 + 4 * 2 + 8;
+    }
+
+    public void saveState(ByteBuffer state) {
+        for (int i = 0; i < buffer.length; i++) {
+            state.putInt(buffer[i]);
+        }
+        state.putInt(readIndex);
+        state.putInt(sum);
+        state.putLong(nextSampleTime);
+    }
+
+    public void loadState(ByteBuffer state) {
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = state.getInt();
+        }
+        readIndex = state.getInt();
+        sum = state.getInt();
+        nextSampleTime = state.getLong();
+    }
+}
@@ -18,6 +18,8 @@
 
 package com.lattenes.Core.APU;
 
+import java.nio.ByteBuffer;
+
 public class ChannelLengthCounter {
     boolean halt = false;
     short counter = 0;
@@ -29,4 +31,18 @@ public class ChannelLengthCounter {
         }
         return counter;
     }
+
+    int getStateSize() {
+        return 1 + Short.BYTES;
+    }
+
+    void saveState(ByteBuffer state) {
+        state.put((byte) (halt ? 1 : 0));
+        state.putShort(counter);
+    }
+
+    void loadState(ByteBuffer state) {
+        halt = state.get() == 1;
+        counter = state.getShort();
+    }
 }
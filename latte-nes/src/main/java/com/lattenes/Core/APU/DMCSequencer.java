@@ -0,0 +1,133 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core.APU;
+
+import java.nio.ByteBuffer;
+
+// Delta modulation channel. Every timer step shifts one bit of the current
+// sample byte out and moves the output level up or down by 2. The sample
+// bytes themselves are read through the CPU bus by System, the APU only
+// says at which cycle the next one is needed.
+public class DMCSequencer extends Sequencer {
+    boolean irqEnabled = false;
+    boolean irqFlag = false;
+    boolean loop = false;
+    int sampleAddress = 0xC000;
+    int sampleLength = 1;
+    int currentAddress = 0xC000;
+    int bytesRemaining = 0;
+
+    int sampleBuffer = 0;
+    boolean bufferEmpty = true;
+    int shiftRegister = 0;
+    int bitsRemaining = 8;
+    boolean silence = true;
+    int level = 0;
+
+    // reload holds the period straight from the rate table
+    @Override
+    int period() {
+        return reload;
+    }
+
+    @Override
+    void manipulateSequence() {
+        if (!silence) {
+            if ((shiftRegister & 0x01) != 0) {
+                if (level <= 125) level += 2;
+            } else {
+                if (level >= 2) level -= 2;
+            }
+        }
+        shiftRegister >>= 1;
+
+        // End of an output cycle, the next one plays the sample buffer
+        if (--bitsRemaining == 0) {
+            bitsRemaining = 8;
+            if (bufferEmpty) {
+                silence = true;
+            } else {
+                silence = false;
+                shiftRegister = sampleBuffer;
+                bufferEmpty = true;
+            }
+        }
+    }
+
+    void restartSample() {
+        currentAddress = sampleAddress;
+        bytesRemaining = sampleLength;
+    }
+
+    // Takes the byte read from currentAddress
+    void loadSample(int value) {
+        sampleBuffer = value;
+        bufferEmpty = false;
+        currentAddress = currentAddress == 0xFFFF ? 0x8000 : currentAddress + 1;
+
+        if (--bytesRemaining == 0) {
+            if (loop) {
+                restartSample();
+            } else if (irqEnabled) {
+                irqFlag = true;
+            }
+        }
+    }
+
+    @Override
+    int getStateSize() {
+        return super.getStateSize() + 3 + 5 * Integer.BYTES + 1 + 2 * Integer.BYTES + 1 + Integer.BYTES;
+    }
+
+    @Override
+    void saveState(ByteBuffer state) {
+        super.saveState(state);
+        state.put((byte) (irqEnabled ? 1 : 0));
+        state.put((byte) (irqFlag ? 1 : 0));
+        state.put((byte) (loop ? 1 : 0));
+        state.putInt(sampleAddress);
+        state.putInt(sampleLength);
+        state.putInt(currentAddress);
+        state.putInt(bytesRemaining);
+        state.putInt(sampleBuffer);
+        state.put((byte) (bufferEmpty ? 1 : 0));
+        state.putInt(shiftRegister);
+        state.putInt(bitsRemaining);
+        state.put((byte) (silence ? 1 : 0));
+        state.putInt(level);
+    }
+
+    @Override
+    void loadState(ByteBuffer state) {
+        super.loadState(state);
+        irqEnabled = state.get() == 1;
+        irqFlag = state.get() == 1;
+        loop = state.get() == 1;
+        sampleAddress = state.getInt();
+        sampleLength = state.getInt();
+        currentAddress = state.getInt();
+        bytesRemaining = state.getInt();
+        sampleBuffer = state.getInt();
+        bufferEmpty = state.get() == 1;
+        shiftRegister = state.getInt();
+        bitsRemaining = state.getInt();
+        silence = state.get() == 1;
+        level = state.getInt();
+    }
+}
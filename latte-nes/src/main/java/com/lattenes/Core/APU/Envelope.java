@@ -18,6 +18,8 @@
 
 package com.lattenes.Core.APU;
 
+import java.nio.ByteBuffer;
+
 public class Envelope {
     boolean enabled = false;
     boolean start = false;
@@ -49,4 +51,26 @@ public class Envelope {
             out = volume;
         }
     }
+
+    int getStateSize() {
+        return 2 + 4 * Integer.BYTES;
+    }
+
+    void saveState(ByteBuffer state) {
+        state.put((byte) (enabled ? 1 : 0));
+        state.put((byte) (start ? 1 : 0));
+        state.putInt(volume);
+        state.putInt(divider);
+        state.putInt(decay);
+        state.putInt(out);
+    }
+
+    void loadState(ByteBuffer state) {
+        enabled = state.get() == 1;
+        start = state.get() == 1;
+        volume = state.getInt();
+        divider = state.getInt();
+        decay = state.getInt();
+        out = state.getInt();
+    }
 }
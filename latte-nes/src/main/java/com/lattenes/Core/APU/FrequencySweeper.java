@@ -18,6 +18,8 @@
 
 package com.lattenes.Core.APU;
 
+import java.nio.ByteBuffer;
+
 public class FrequencySweeper {
     boolean mute = false;
     boolean enabled = false;
@@ -58,4 +60,30 @@ public class FrequencySweeper {
 
         mute = (pulseSeq.reload < 8) || (pulseSeq.reload > 0x7FF);
     }
+
+    int getStateSize() {
+        return 4 + 4 * Integer.BYTES;
+    }
+
+    void saveState(ByteBuffer state) {
+        state.put((byte) (mute ? 1 : 0));
+        state.put((byte) (enabled ? 1 : 0));
+        state.put((byte) (negate ? 1 : 0));
+        state.put((byte) (reload ? 1 : 0));
+        state.putInt(diff);
+        state.putInt(period);
+        state.putInt(shift);
+        state.putInt(timer);
+    }
+
+    void loadState(ByteBuffer state) {
+        mute = state.get() == 1;
+        enabled = state.get() == 1;
+        negate = state.get() == 1;
+        reload = state.get() == 1;
+        diff = state.getInt();
+        period = state.getInt();
+        shift = state.getInt();
+        timer = state.getInt();
+    }
 }
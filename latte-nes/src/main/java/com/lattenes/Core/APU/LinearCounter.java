@@ -18,6 +18,8 @@
 
 package com.lattenes.Core.APU;
 
+import java.nio.ByteBuffer;
+
 public class LinearCounter {
     short reload = 0;
     short timer = 0;
@@ -37,4 +39,22 @@ public class LinearCounter {
             }
         }
     }
+
+    int getStateSize() {
+        return 2 * Short.BYTES + 2;
+    }
+
+    void saveState(ByteBuffer state) {
+        state.putShort(reload);
+        state.putShort(timer);
+        state.put((byte) (controlFlag ? 1 : 0));
+        state.put((byte) (reloadTimer ? 1 : 0));
+    }
+
+    void loadState(ByteBuffer state) {
+        reload = state.getShort();
+        timer = state.getShort();
+        controlFlag = state.get() == 1;
+        reloadTimer = state.get() == 1;
+    }
 }
@@ -1,17 +1,20 @@
 package com.lattenes.Core.APU;
 
+// Output filter chain of the NES, every APU owns its own so several
+// systems can run side by side
 public class NESFilters {
-    static LowPassFilter lowPassFilter1;
-    static HighPassFilter highPassFilter1;
-    static HighPassFilter highPassFilter2;
+    private final LowPassFilter lowPassFilter1;
+    private final HighPassFilter highPassFilter1;
+    private final HighPassFilter highPassFilter2;
 
-    public static void init() {
-        lowPassFilter1 = new LowPassFilter(44100, 14000);
-        highPassFilter1 = new HighPassFilter(44100, 90);
-        highPassFilter2 = new HighPassFilter(44100, 440);
+    public NESFilters(int sampleRate) {
+        // Kept under Nyquist for low output rates
+        lowPassFilter1 = new LowPassFilter(sampleRate, Math.min(14000, sampleRate * 0.45f));
+        highPassFilter1 = new HighPassFilter(sampleRate, 90);
+        highPassFilter2 = new HighPassFilter(sampleRate, 440);
     }
 
-    public static float filter(float signal) {
+    public float filter(float signal) {
         signal = highPassFilter1.filter(signal);
         signal = highPassFilter2.filter(signal);
         signal = lowPassFilter1.filter(signal);
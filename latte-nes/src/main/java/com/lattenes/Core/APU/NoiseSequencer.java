@@ -18,9 +18,17 @@
 
 package com.lattenes.Core.APU;
 
+import java.nio.ByteBuffer;
+
 public class NoiseSequencer extends Sequencer {
     boolean mode = false;
-    
+
+    // reload holds the period straight from the period table
+    @Override
+    int period() {
+        return reload;
+    }
+
     @Override
     void manipulateSequence() {
         int feedback;
@@ -33,4 +41,21 @@ public class NoiseSequencer extends Sequencer {
 
         sequence = (sequence >> 1) | (feedback << 14);
     }
+
+    @Override
+    int getStateSize() {
+        return super.getStateSize() + 1;
+    }
+
+    @Override
+    void saveState(ByteBuffer state) {
+        super.saveState(state);
+        state.put((byte) (mode ? 1 : 0));
+    }
+
+    @Override
+    void loadState(ByteBuffer state) {
+        super.loadState(state);
+        mode = state.get() == 1;
+    }
 }
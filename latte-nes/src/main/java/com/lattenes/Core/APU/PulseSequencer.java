@@ -20,8 +20,15 @@
 package com.lattenes.Core.APU;
 
 public class PulseSequencer extends Sequencer {
+    // The timer clocks every other CPU cycle
+    @Override
+    int period() {
+        return (reload + 1) * 2;
+    }
+
     @Override
     void manipulateSequence() {
         sequence = ((sequence & 0x80) >> 7) | ((sequence & 0x7F) << 1);
+        output = (byte) ((sequence & 0x80) >> 7);
     }
 }
@@ -19,24 +19,48 @@
  
 package com.lattenes.Core.APU;
 
+import java.nio.ByteBuffer;
+
 public abstract class Sequencer {
     long sequence = 0;
     long newSequence = 0;
-    int timer = 0;
     int reload = 0;
     byte output = 0;
+    // CPU cycle of the next step
+    long nextStep = 0;
+
+    void step() {
+        manipulateSequence();
+        nextStep += period();
+    }
 
-    byte clock(boolean enabled) {
-        if (enabled) {
-            timer--;
-            if (timer < 0) {
-                timer = reload + 1;
-                manipulateSequence();
-                output = (byte) ((sequence & 0x80) >> 7);
-            }
-        }
-        return output;
+    // Restarts the timer, the next step is a full period from now
+    void restart(long cycle) {
+        nextStep = cycle + period();
     }
 
+    // Timer period in CPU cycles
+    abstract int period();
+
     abstract void manipulateSequence();
+
+    int getStateSize() {
+        return 2 * Long.BYTES + Integer.BYTES + 1 + Long.BYTES;
+    }
+
+    void saveState(ByteBuffer state) {
+        state.putLong(sequence);
+        state.putLong(newSequence);
+        state.putInt(reload);
+        state.put(output);
+        state.putLong(nextStep);
+    }
+
+    void loadState(ByteBuffer state) {
+        sequence = state.getLong();
+        newSequence = state.getLong();
+        reload = state.getInt();
+        output = state.get();
+        nextStep = state.getLong();
+    }
 }
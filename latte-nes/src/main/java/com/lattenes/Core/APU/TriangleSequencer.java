@@ -29,6 +29,11 @@ public class TriangleSequencer extends Sequencer {
     LinearCounter linearCounter;
     ChannelLengthCounter lengthCounter; 
 
+    @Override
+    int period() {
+        return reload + 1;
+    }
+
     @Override
     void manipulateSequence() {
         if (linearCounter.timer > 0 && lengthCounter.counter > 0) {
@@ -110,10 +110,50 @@ public class MOS6502 {
         cycles = ByteBuffer.wrap(state, k, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
     }
 
+    // In-memory snapshots for run-ahead, written into a reused buffer so
+    // nothing is allocated per frame
+    // Bytes saveState writes
+    public int getStateSize() {
+        return Integer.BYTES + Short.BYTES + 1 + 3 * Short.BYTES + Integer.BYTES + Long.BYTES;
+    }
+
+    public void saveState(ByteBuffer state) {
+        state.putInt(PC);
+        state.putShort(SP);
+        state.put(processorStatusWord);
+        state.putShort(A);
+        state.putShort(X);
+        state.putShort(Y);
+        state.putInt(cycles);
+        state.putLong(cyclesCount);
+    }
+
+    public void loadState(ByteBuffer state) {
+        PC = state.getInt();
+        SP = state.getShort();
+        processorStatusWord = state.get();
+        A = state.getShort();
+        X = state.getShort();
+        Y = state.getShort();
+        cycles = state.getInt();
+        cyclesCount = state.getLong();
+    }
+
     public boolean doneProcessingInstruction() {
         return cycles == 0;
     }
 
+    // Cycles left of the current instruction, it has already run so they
+    // only count down
+    public int getIdleCycles() {
+        return cycles;
+    }
+
+    public void skipIdleCycles(int count) {
+        cyclesCount += count;
+        cycles -= count;
+    }
+
     void setFlag(ProcessorStatusWordFlag flag, boolean value) {
         if (value) {
             processorStatusWord |= flag.value;
@@ -130,6 +170,10 @@ public class MOS6502 {
         return memory.pollNMI();
     }
 
+    private boolean systemRequestingIRQ() {
+        return memory.pollIRQ();
+    }
+
     public MOS6502(Memory memory, boolean logging) {
         this.memory = memory;
         opcodes = new ArrayList<MOS6502Instr>();
@@ -572,6 +616,12 @@ public class MOS6502 {
                 return;
             }
 
+            // IRQ is level triggered, it's taken again after RTI for as
+            // long as the line stays low and I is clear
+            if (systemRequestingIRQ() && IRQ()) {
+                return;
+            }
+
             setFlag(ProcessorStatusWordFlag.U, true);
 
             // Get the next opcode
@@ -642,12 +692,13 @@ public class MOS6502 {
             SP--;
             SP &= 0xFF;
 
+            // The pushed status still has I as it was, RTI unmasks again
             setFlag(ProcessorStatusWordFlag.B, false);
             setFlag(ProcessorStatusWordFlag.U, true);
-            setFlag(ProcessorStatusWordFlag.I, true);
             memory.writeWord(0x0100 + SP, processorStatusWord);
             SP--;
             SP &= 0xFF;
+            setFlag(ProcessorStatusWordFlag.I, true);
 
             absoluteAddress = 0xFFFE;
             PC = memory.readWord(absoluteAddress);
@@ -672,10 +723,10 @@ public class MOS6502 {
 
         setFlag(ProcessorStatusWordFlag.B, false);
         setFlag(ProcessorStatusWordFlag.U, true);
-        setFlag(ProcessorStatusWordFlag.I, true);
         memory.writeWord(0x0100 + SP, processorStatusWord);
         SP--;
         SP &= 0xFF;
+        setFlag(ProcessorStatusWordFlag.I, true);
 
         absoluteAddress = 0xFFFA;
         PC = memory.readWord(absoluteAddress);
@@ -703,6 +754,29 @@ public class MOS6502 {
         cycles = 8;
     }
 
+    // Calls a subroutine from outside the program, the way the NSF player
+    // runs INIT and PLAY. A JSR from returnAddress is faked on the stack,
+    // so the routine's RTS lands there, see hasReturnedTo.
+    public void callSubroutine(int address, int returnAddress, int a, int x) {
+        int pushed = (returnAddress - 1) & 0xFFFF;
+        memory.writeWord(0x0100 + SP, (byte) (pushed >> 8));
+        SP--;
+        SP &= 0xFF;
+        memory.writeWord(0x0100 + SP, (byte) (pushed & 0xFF));
+        SP--;
+        SP &= 0xFF;
+
+        A = (short) (a & 0xFF);
+        X = (short) (x & 0xFF);
+        Y = 0;
+        PC = address & 0xFFFF;
+        cycles = 0;
+    }
+
+    public boolean hasReturnedTo(int address) {
+        return cycles == 0 && PC == address;
+    }
+
     /*       
                          MOS 6502
                 A d d r e s s i n g  M o d e s
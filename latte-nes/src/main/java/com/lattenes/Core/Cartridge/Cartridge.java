@@ -18,17 +18,18 @@
 
 package com.lattenes.Core.Cartridge;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.io.*;
 
 import com.lattenes.Core.Cartridge.Mapper.IMapper;
 import com.lattenes.Core.Cartridge.Mapper.Mapper0;
+import com.lattenes.Core.Cartridge.Mapper.NSFMapper;
 import com.lattenes.Util.Tuple;
 
 public class Cartridge {
-    private ArrayList<Byte> prgMEM;
-    private ArrayList<Byte> chrMEM;
+    private byte[] prgMEM;
+    private byte[] chrMEM;
 
     private short mapperID;
     private short PRGBanks;
@@ -53,8 +54,7 @@ public class Cartridge {
 
             // Check if the file is an iNES file
             if (iNESHeader[0] != 0x4E || iNESHeader[1] != 0x45 || iNESHeader[2] != 0x53 || iNESHeader[3] != 0x1A) {
-                System.out.println("File is not an iNES file");
-                return;
+                throw (new Exception("File is not an iNES file: " + fileName));
             }
 
             byte prgSize = iNESHeader[4];
@@ -83,36 +83,61 @@ public class Cartridge {
                     throw (new Exception("Unsupported mapper: " + mapperID));
             }
 
-            prgMEM = new ArrayList<Byte>(Collections.nCopies(PRGBanks * 0x4000, (byte) 0));
+            prgMEM = new byte[PRGBanks * 0x4000];
             if (CHRBanks > 0) {
-                chrMEM = new ArrayList<Byte>(Collections.nCopies(CHRBanks * 0x2000, (byte) 0));
+                chrMEM = new byte[CHRBanks * 0x2000];
             } else {
-                chrMEM = new ArrayList<Byte>(Collections.nCopies(0x2000, (byte) 0));
+                chrMEM = new byte[0x2000];
             }
             
 
-            while (i < prgMEM.size() && (byteRead = inputStream.read()) != -1) {
-                prgMEM.set(i, (byte) byteRead);
+            while (i < prgMEM.length && (byteRead = inputStream.read()) != -1) {
+                prgMEM[i] = (byte) byteRead;
                 i++;
             }
 
             i = 0;
 
-            while (i < chrMEM.size() && (byteRead = inputStream.read()) != -1) {
-                chrMEM.set(i, (byte) byteRead);
+            while (i < chrMEM.length && (byteRead = inputStream.read()) != -1) {
+                chrMEM[i] = (byte) byteRead;
                 i++;
             }
-        } catch(IOException e) {
-            e.printStackTrace();
-            java.lang.System.exit(-1);
         }
     }
 
+    // NSF tunes, PRG memory holds the banked image followed by the work RAM
+    public Cartridge(NSFFile nsf) {
+        byte[] image = nsf.buildImage();
+        prgMEM = Arrays.copyOf(image, image.length + 0x2000);
+        chrMEM = new byte[0x2000];
+        mapperID = -1;
+        PRGBanks = (short) (image.length >> 14);
+        CHRBanks = 0;
+        mapper = new NSFMapper(image.length, nsf.bankSwitched ? nsf.initialBanks : new int[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+        cartMirror = Mirror.HORIZONTAL;
+    }
+
+    // Copy used by the render thread, CHR memory is duplicated so writes
+    // replayed there don't race with the emulation thread
+    public Cartridge(Cartridge source) {
+        prgMEM = source.prgMEM;
+        chrMEM = source.chrMEM.clone();
+        mapperID = source.mapperID;
+        PRGBanks = source.PRGBanks;
+        CHRBanks = source.CHRBanks;
+        mapper = source.mapper;
+        cartMirror = source.cartMirror;
+    }
+
+    public void copyCHRFrom(Cartridge source) {
+        java.lang.System.arraycopy(source.chrMEM, 0, chrMEM, 0, chrMEM.length);
+    }
+
     public boolean writeWordFromCPU(int address, byte value) {
         Tuple<Boolean, Integer> mapperWriteAttempt;
 
         if ((mapperWriteAttempt = mapper.writeWordFromCPU(address, value)).first) {
-            prgMEM.set(mapperWriteAttempt.second, value);
+            prgMEM[mapperWriteAttempt.second] = value;
             return true;
         }
 
@@ -126,17 +151,29 @@ public class Cartridge {
 
         if ((mapperReadAttempt = mapper.readWordFromCPU(address)).first) {
             readSuccessful = true;
-            data = prgMEM.get(mapperReadAttempt.second);
+            data = prgMEM[mapperReadAttempt.second];
         }
 
         return new Tuple<Boolean, Byte>(readSuccessful, data);
     }
 
+    // The byte at a CPU address, or -1 if the cartridge doesn't answer
+    public int readPRG(int address) {
+        int mapped = mapper.mapReadFromCPU(address);
+        return mapped < 0 ? -1 : prgMEM[mapped] & 0xFF;
+    }
+
+    // The byte at a PPU address, or -1 if the cartridge doesn't answer
+    public int readCHR(int address) {
+        int mapped = mapper.mapReadFromPPU(address);
+        return mapped < 0 ? -1 : chrMEM[mapped] & 0xFF;
+    }
+
     public boolean writeWordFromPPU(int address, byte value) {
         Tuple<Boolean, Integer> mapperWriteAttempt;
 
         if ((mapperWriteAttempt = mapper.writeWordFromPPU(address, value)).first) {
-            chrMEM.set(mapperWriteAttempt.second, value);
+            chrMEM[mapperWriteAttempt.second] = value;
             return true;
         }
 
@@ -150,12 +187,44 @@ public class Cartridge {
 
         if ((mapperReadAttempt = mapper.readWordFromPPU(address)).first) {
             readSuccessful = true;
-            data = chrMEM.get(mapperReadAttempt.second);
+            data = chrMEM[mapperReadAttempt.second];
         }
 
         return new Tuple<Boolean, Byte>(readSuccessful, data);
     }
 
+    // Copies what the PPU sees at $0000-$1FFF, one 1 KB bank at a time
+    public void copyPatternTables(byte[] destination) {
+        for (int bank = 0; bank < 0x2000; bank += 0x400) {
+            Tuple<Boolean, Integer> mapperReadAttempt = mapper.readWordFromPPU(bank);
+            if (!mapperReadAttempt.first) {
+                continue;
+            }
+
+            int source = mapperReadAttempt.second;
+            for (int i = 0; i < 0x400; i++) {
+                destination[bank + i] = chrMEM[source + i];
+            }
+        }
+    }
+
+    // Only CHR RAM can change, carts with CHR ROM save nothing
+    public int getStateSize() {
+        return CHRBanks == 0 ? chrMEM.length : 0;
+    }
+
+    public void saveState(ByteBuffer state) {
+        if (CHRBanks == 0) {
+            state.put(chrMEM);
+        }
+    }
+
+    public void loadState(ByteBuffer state) {
+        if (CHRBanks == 0) {
+            state.get(chrMEM);
+        }
+    }
+
     public void reset() {
 
     }
@@ -32,6 +32,19 @@ public interface IMapper {
     public Tuple<Boolean, Integer> readWordFromCPU(int address);
     public Tuple<Boolean, Integer> readWordFromPPU(int address);
 
+    // Same mapping as the reads above without the tuple, -1 when the
+    // mapper doesn't answer. Used on every bus access, mappers should
+    // override these.
+    public default int mapReadFromCPU(int address) {
+        Tuple<Boolean, Integer> result = readWordFromCPU(address);
+        return result.first ? result.second : -1;
+    }
+
+    public default int mapReadFromPPU(int address) {
+        Tuple<Boolean, Integer> result = readWordFromPPU(address);
+        return result.first ? result.second : -1;
+    }
+
     public void reset();
 
     public Mirror getMirroring();
@@ -85,6 +85,19 @@ public class Mapper0 implements IMapper {
         return new Tuple<Boolean, Integer>(readSuccessful, newAddress);
     }
 
+    @Override
+    public int mapReadFromCPU(int address) {
+        if (address >= 0x8000 && address <= 0xFFFF) {
+            return address & (PRGBanks == 1 ? 0x3FFF : 0x7FFF);
+        }
+        return -1;
+    }
+
+    @Override
+    public int mapReadFromPPU(int address) {
+        return address >= 0x0000 && address <= 0x1FFF ? address : -1;
+    }
+
     @Override
     public boolean getIRQ() {
         // Mapper 0 has no ability to call IRQ
@@ -0,0 +1,105 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core.Cartridge.Mapper;
+
+import com.lattenes.Core.Cartridge.Mirror;
+import com.lattenes.Util.Tuple;
+
+// NSF "mapper": eight 4 KB PRG banks at $8000-$FFFF selected by writes to
+// $5FF8-$5FFF, and 8 KB of work RAM at $6000-$7FFF kept right after the
+// PRG image in the cartridge's PRG memory
+public class NSFMapper implements IMapper {
+    private final int bankCount;
+    private final int[] initialBanks;
+    private final int[] banks = new int[8];
+    private final int workRAMOffset;
+
+    public NSFMapper(int imageSize, int[] initialBanks) {
+        this.bankCount = imageSize >> 12;
+        this.initialBanks = initialBanks.clone();
+        this.workRAMOffset = imageSize;
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < 8; i++) {
+            banks[i] = initialBanks[i] % bankCount;
+        }
+    }
+
+    @Override
+    public Tuple<Boolean, Integer> writeWordFromCPU(int address, byte value) {
+        if (address >= 0x5FF8 && address <= 0x5FFF) {
+            banks[address - 0x5FF8] = (value & 0xFF) % bankCount;
+        } else if (address >= 0x6000 && address <= 0x7FFF) {
+            return new Tuple<Boolean, Integer>(true, workRAMOffset + (address - 0x6000));
+        }
+        return new Tuple<Boolean, Integer>(false, 0);
+    }
+
+    @Override
+    public Tuple<Boolean, Integer> writeWordFromPPU(int address, byte value) {
+        // CHR is plain RAM, nothing draws from it
+        boolean pattern = address >= 0x0000 && address <= 0x1FFF;
+        return new Tuple<Boolean, Integer>(pattern, address);
+    }
+
+    @Override
+    public Tuple<Boolean, Integer> readWordFromCPU(int address) {
+        int mapped = mapReadFromCPU(address);
+        return new Tuple<Boolean, Integer>(mapped >= 0, Math.max(mapped, 0));
+    }
+
+    @Override
+    public Tuple<Boolean, Integer> readWordFromPPU(int address) {
+        int mapped = mapReadFromPPU(address);
+        return new Tuple<Boolean, Integer>(mapped >= 0, Math.max(mapped, 0));
+    }
+
+    @Override
+    public int mapReadFromCPU(int address) {
+        if (address >= 0x8000 && address <= 0xFFFF) {
+            return (banks[(address - 0x8000) >> 12] << 12) | (address & 0xFFF);
+        } else if (address >= 0x6000 && address <= 0x7FFF) {
+            return workRAMOffset + (address - 0x6000);
+        }
+        return -1;
+    }
+
+    @Override
+    public int mapReadFromPPU(int address) {
+        return address >= 0x0000 && address <= 0x1FFF ? address : -1;
+    }
+
+    @Override
+    public boolean getIRQ() {
+        return false;
+    }
+
+    @Override
+    public void clearIRQ() {
+
+    }
+
+    @Override
+    public Mirror getMirroring() {
+        return Mirror.HARDWARE;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core.Cartridge;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// NSF music file: a 128 byte header followed by the tune's code and data,
+// loaded at loadAddress. Tunes that bank switch give the initial 4 KB
+// banks for $8000-$FFFF in the header, the data then starts at
+// loadAddress & 0xFFF of bank 0.
+public class NSFFile {
+    public final int version;
+    public final int songCount;
+    // 1 based, like the header
+    public final int startingSong;
+    public final int loadAddress;
+    public final int initAddress;
+    public final int playAddress;
+    public final String name;
+    public final String artist;
+    public final String copyright;
+    // Microseconds between PLAY calls on NTSC
+    public final int playSpeed;
+    public final int[] initialBanks = new int[8];
+    public final boolean bankSwitched;
+    public final int expansionChips;
+    public final byte[] data;
+
+    public NSFFile(Path path) throws Exception {
+        byte[] file = Files.readAllBytes(path);
+        if (file.length < 128 || file[0] != 'N' || file[1] != 'E' || file[2] != 'S'
+                || file[3] != 'M' || file[4] != 0x1A) {
+            throw new Exception("File is not an NSF file: " + path);
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(file, 0, 128).order(ByteOrder.LITTLE_ENDIAN);
+        version = file[5] & 0xFF;
+        songCount = file[6] & 0xFF;
+        startingSong = Math.max(1, file[7] & 0xFF);
+        loadAddress = header.getShort(0x08) & 0xFFFF;
+        initAddress = header.getShort(0x0A) & 0xFFFF;
+        playAddress = header.getShort(0x0C) & 0xFFFF;
+        name = readString(file, 0x0E);
+        artist = readString(file, 0x2E);
+        copyright = readString(file, 0x4E);
+        int speed = header.getShort(0x6E) & 0xFFFF;
+        playSpeed = speed == 0 ? 16639 : speed;
+
+        boolean anyBank = false;
+        for (int i = 0; i < 8; i++) {
+            initialBanks[i] = file[0x70 + i] & 0xFF;
+            anyBank |= initialBanks[i] != 0;
+        }
+        bankSwitched = anyBank;
+        expansionChips = file[0x7B] & 0xFF;
+
+        if (loadAddress < 0x8000 && !bankSwitched) {
+            throw new IOException("Unsupported load address: " + Integer.toHexString(loadAddress));
+        }
+        data = Arrays.copyOfRange(file, 128, file.length);
+    }
+
+    // Fixed 32 byte, zero padded fields
+    private static String readString(byte[] file, int offset) {
+        int length = 0;
+        while (length < 32 && file[offset + length] != 0) {
+            length++;
+        }
+        return new String(file, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    // The 4 KB banks the tune's data is laid out in, bank switched or not
+    public byte[] buildImage() {
+        int offset = bankSwitched ? loadAddress & 0xFFF : loadAddress - 0x8000;
+        int size = Math.max(0x8000, (offset + data.length + 0xFFF) & ~0xFFF);
+        byte[] image = new byte[size];
+        java.lang.System.arraycopy(data, 0, image, offset, Math.min(data.length, size - offset));
+        return image;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class DoubleFrameBuffer implements IFrameBuffer {
+    private final PixelFormat format;
+    private ByteBuffer backBuffer;
+    private volatile ByteBuffer frontBuffer;
+    private int backBurstPhase = 0;
+    private int frontBurstPhase = 0;
+
+    public DoubleFrameBuffer(PixelFormat format) {
+        this(ByteBuffer.allocateDirect(WIDTH * HEIGHT * format.bytesPerPixel),
+             ByteBuffer.allocateDirect(WIDTH * HEIGHT * format.bytesPerPixel),
+             format);
+    }
+
+    // The buffers are supplied by the caller, i.e. memory that a consumer
+    // already owns, so frames never have to be copied out of the PPU
+    public DoubleFrameBuffer(ByteBuffer first, ByteBuffer second, PixelFormat format) {
+        final int size = WIDTH * HEIGHT * format.bytesPerPixel;
+        if (!first.isDirect() || !second.isDirect()) {
+            throw new IllegalArgumentException("Frame buffers must be direct buffers");
+        }
+        if (first.capacity() < size || second.capacity() < size) {
+            throw new IllegalArgumentException("Frame buffers must hold at least " + size + " bytes");
+        }
+
+        this.format = format;
+        this.backBuffer = first.order(ByteOrder.LITTLE_ENDIAN);
+        this.frontBuffer = second.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public PixelFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public ByteBuffer getBackBuffer() {
+        return backBuffer;
+    }
+
+    @Override
+    public ByteBuffer getFrontBuffer() {
+        return frontBuffer;
+    }
+
+    @Override
+    public void swapBuffers() {
+        ByteBuffer finished = backBuffer;
+        backBuffer = frontBuffer;
+        frontBurstPhase = backBurstPhase;
+        frontBuffer = finished;
+    }
+
+    @Override
+    public void setBackBurstPhase(int phase) {
+        backBurstPhase = phase;
+    }
+
+    @Override
+    public int getFrontBurstPhase() {
+        return frontBurstPhase;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core;
+
+import java.nio.ByteBuffer;
+
+// Where the PPU renders its frames. The PPU writes to the back buffer, top row
+// first, and calls swapBuffers() on the last dot of every rendered frame.
+// Consumers only ever read the front buffer.
+public interface IFrameBuffer {
+    public static final int WIDTH = 256;
+    public static final int HEIGHT = 240;
+
+    public PixelFormat getFormat();
+
+    public ByteBuffer getBackBuffer();
+    public ByteBuffer getFrontBuffer();
+
+    // The frame swapBuffers() last published, only valid on the thread that
+    // calls swapBuffers()
+    public default ByteBuffer getFinishedBuffer() {
+        return getFrontBuffer();
+    }
+
+    public void swapBuffers();
+
+    // Color subcarrier phase (0-2) the frame was drawn with, it travels
+    // with the frame for composite filters
+    public void setBackBurstPhase(int phase);
+    public int getFrontBurstPhase();
+}
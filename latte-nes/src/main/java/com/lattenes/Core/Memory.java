@@ -21,9 +21,10 @@ package com.lattenes.Core;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.lattenes.Core.APU.APU;
 import com.lattenes.Core.Cartridge.Cartridge;
-import com.lattenes.Util.Tuple;
 
 public class Memory {
     /* NES complete memory map
@@ -53,8 +54,10 @@ public class Memory {
     private PPU NESPPU;
     private APU NESAPU;
     private byte[] controllers;
-    public byte controller1;
-    public byte controller2;
+    // Button state of both controllers, controller 1 in the low byte and
+    // controller 2 in the next. Written by the input thread, latched here
+    // when the game strobes $4016.
+    public final AtomicInteger controllerState = new AtomicInteger(0);
 
     public boolean PPUReqDMA = false;
     public boolean DMAWait = true;
@@ -65,8 +68,16 @@ public class Memory {
 
     public int DMATicks = 0;
 
-    public boolean saveStateFlag = false;
-    public boolean loadStateFlag = false;
+    // CPU cycles still held by a DMC sample fetch
+    public int DMCStall = 0;
+
+    // CPU cycles since power on, the APU is run up to this before a
+    // register write
+    public long cpuCycles = 0;
+
+    public volatile boolean saveStateFlag = false;
+    public volatile boolean loadStateFlag = false;
+    public volatile boolean ppuDebugFlag = false;
 
     public Memory(Cartridge cartridge, PPU NESPPU, APU NESAPU) {
         CPUMemory = new byte[RAM_SIZE];
@@ -77,7 +88,7 @@ public class Memory {
     }
 
     public void stepDMA() {
-        NESPPU.OAMData[OAMAddr] = DMAData;
+        NESPPU.writeOAMFromDMA(OAMAddr, DMAData);
         OAMAddr = (OAMAddr + 1) & 0xFF;
         DMAAddr++;
         DMATicks++;
@@ -92,6 +103,26 @@ public class Memory {
         DMAData = (byte) readWord(DMAPage << 8 | DMAAddr);
     }
 
+    // Reads the DMC's next sample byte through the CPU bus
+    private void fetchDMCSample() {
+        NESAPU.runUntil(cpuCycles);
+        NESAPU.loadDMCSample(readWord(NESAPU.getDMCAddress()));
+    }
+
+    // DMC fetches come before everything else on the bus. The cycle is
+    // known ahead of time, there's nothing to poll in between. Returns
+    // the cycles the read halts the CPU for, 4 or 2 when it lands in the
+    // middle of an OAM DMA.
+    public int fetchDMCSampleIfDue() {
+        if (cpuCycles < NESAPU.getDMCFetchCycle()) {
+            return 0;
+        }
+
+        fetchDMCSample();
+        boolean duringOAMDMA = PPUReqDMA && !DMAWait;
+        return duringOAMDMA ? 2 : 4;
+    }
+
     public void writeWord(int address, byte value) {
 
         if (cartridge.writeWordFromCPU(address, value)) {
@@ -108,22 +139,23 @@ public class Memory {
             DMAAddr = 0;
             DMATicks = 0;
             PPUReqDMA = true;
-        } else if (address >= 0x4000 && address <= 0x4008 
-                || address >= 0x400A && address <= 0x400F
+        } else if (address >= 0x4000 && address <= 0x4013
                 || address == 0x4015 || address == 0x4017) {
+            NESAPU.runUntil(cpuCycles);
             NESAPU.writeToAPUFromCPU(address, value);
         } else if (address == 0x4016) {
             // Controller write
-            controllers[0] = controller1;
-            controllers[1] = controller2;
+            int state = controllerState.get();
+            controllers[0] = (byte) state;
+            controllers[1] = (byte) (state >> 8);
         }
     }
 
     public int readWord(int address) {
         byte data = 0x00;
-        Tuple<Boolean, Byte> result;
-        if ((result = cartridge.readWordFromCPU(address)).first) {
-            data = result.second;
+        int cartridgeData = cartridge.readPRG(address);
+        if (cartridgeData >= 0) {
+            data = (byte) cartridgeData;
         } else if (address <= 0x1FFF) {
             data = CPUMemory[address & 0x07FF];
         } else if (address <= 0x3FFF) {
@@ -131,6 +163,8 @@ public class Memory {
             data = NESPPU.readPPUFromCPU(address);
         } else if (address == 0x4015) {
             // APU status read
+            NESAPU.runUntil(cpuCycles);
+            data = (byte) NESAPU.readStatus();
         } else if (address == 0x4016 || address == 0x4017) {
             // Controller read
             data = (controllers[address & 0x1] & 0x80) != 0 ? (byte) 0x01 : 0x00;
@@ -148,6 +182,10 @@ public class Memory {
         NESPPU.clearNMI();
     }
 
+    public boolean pollIRQ() {
+        return NESAPU.irqPending();
+    }
+
     public byte[] dumpState() {
         ArrayList<byte[]> fieldArrays = new ArrayList<byte[]>();
         fieldArrays.add(CPUMemory);
@@ -196,4 +234,37 @@ public class Memory {
         DMAData = state[k++];
         DMATicks = ByteBuffer.wrap(state, k, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
     }
+
+    // Bytes saveState writes
+    public int getStateSize() {
+        return CPUMemory.length + controllers.length + 2 + 3 * Integer.BYTES + 1 + 2 * Integer.BYTES + Long.BYTES;
+    }
+
+    public void saveState(ByteBuffer state) {
+        state.put(CPUMemory);
+        state.put(controllers);
+        state.put((byte) (PPUReqDMA ? 1 : 0));
+        state.put((byte) (DMAWait ? 1 : 0));
+        state.putInt(DMAPage);
+        state.putInt(DMAAddr);
+        state.putInt(OAMAddr);
+        state.put(DMAData);
+        state.putInt(DMATicks);
+        state.putInt(DMCStall);
+        state.putLong(cpuCycles);
+    }
+
+    public void loadState(ByteBuffer state) {
+        state.get(CPUMemory);
+        state.get(controllers);
+        PPUReqDMA = state.get() == 1;
+        DMAWait = state.get() == 1;
+        DMAPage = state.getInt();
+        DMAAddr = state.getInt();
+        OAMAddr = state.getInt();
+        DMAData = state.get();
+        DMATicks = state.getInt();
+        DMCStall = state.getInt();
+        cpuCycles = state.getLong();
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Color lookup table for the PPU. Every entry is a packed RGBA color, red in
+// the low byte and alpha in the high byte, so the ints can be handed to OpenGL
+// as GL_UNSIGNED_INT_8_8_8_8_REV. The table has 512 entries, the low 6 bits of
+// the index are the NES color and the top 3 bits are the PPUMASK emphasis bits.
+public class NESPalette {
+    public static final int LUT_SIZE = 0x200;
+
+    // How much the non emphasized channels are dimmed by each emphasis bit
+    private static final float EMPHASIS_ATTENUATION = 0.816328f;
+
+    // Using the 2C02 layout
+    // https://www.nesdev.org/wiki/PPU_palettes#2C02
+    private static final int[] DEFAULT_COLORS = {
+        0x545454, 0x001E74, 0x081090, 0x300088, 0x440064, 0x5C0030, 0x540400, 0x3C1800,
+        0x202A00, 0x083A00, 0x004000, 0x003C00, 0x00323C, 0x000000, 0x000000, 0x000000,
+        0x989698, 0x084CC4, 0x3032EC, 0x5C1EE4, 0x8814B0, 0xA01464, 0x982220, 0x783C00,
+        0x545A00, 0x287200, 0x087C00, 0x007628, 0x006678, 0x000000, 0x000000, 0x000000,
+        0xECEEEC, 0x4C9AEC, 0x787CEC, 0xB062EC, 0xE454EC, 0xEC58B4, 0xEC6A64, 0xD48820,
+        0xA0AA00, 0x74C400, 0x4CD020, 0x38CC6C, 0x38B4CC, 0x3C3C3C, 0x000000, 0x000000,
+        0xECEEEC, 0xA8CCEC, 0xBCBCEC, 0xD4B2EC, 0xECAEEC, 0xECAED4, 0xECB4B0, 0xE4C490,
+        0xCCD278, 0xB4DE78, 0xA8E290, 0x98E2B4, 0xA0D6E4, 0xA0A2A0, 0x000000, 0x000000,
+    };
+
+    public static int[] createDefault() {
+        return buildLUT(DEFAULT_COLORS);
+    }
+
+    public static int packRGBA(int r, int g, int b) {
+        return 0xFF000000 | ((b & 0xFF) << 16) | ((g & 0xFF) << 8) | (r & 0xFF);
+    }
+
+    // Builds all 8 emphasis variants out of 64 colors given as 0xRRGGBB
+    public static int[] buildLUT(int[] colors) {
+        int[] lut = new int[LUT_SIZE];
+
+        for (int emphasis = 0; emphasis < 8; emphasis++) {
+            // Bit 0 is red, bit 1 is green and bit 2 is blue
+            float rScale = 1.0f, gScale = 1.0f, bScale = 1.0f;
+            if ((emphasis & 0x1) != 0) {
+                gScale *= EMPHASIS_ATTENUATION;
+                bScale *= EMPHASIS_ATTENUATION;
+            }
+            if ((emphasis & 0x2) != 0) {
+                rScale *= EMPHASIS_ATTENUATION;
+                bScale *= EMPHASIS_ATTENUATION;
+            }
+            if ((emphasis & 0x4) != 0) {
+                rScale *= EMPHASIS_ATTENUATION;
+                gScale *= EMPHASIS_ATTENUATION;
+            }
+
+            for (int i = 0; i < 0x40; i++) {
+                int r = (colors[i] >> 16) & 0xFF;
+                int g = (colors[i] >> 8) & 0xFF;
+                int b = colors[i] & 0xFF;
+
+                // Colors $xE and $xF are forced black and don't take emphasis
+                if ((i & 0x0E) != 0x0E) {
+                    r = Math.round(r * rScale);
+                    g = Math.round(g * gScale);
+                    b = Math.round(b * bScale);
+                }
+
+                lut[(emphasis << 6) | i] = packRGBA(r, g, b);
+            }
+        }
+
+        return lut;
+    }
+
+    // Loads a .pal file, either 64 RGB triplets (192 bytes) with the emphasis
+    // variants computed here, or all 512 triplets (1536 bytes)
+    public static int[] loadPalFile(String fileName) throws IOException {
+        byte[] data;
+        try (InputStream inputStream = new FileInputStream(fileName)) {
+            data = inputStream.readAllBytes();
+        }
+
+        if (data.length >= LUT_SIZE * 3) {
+            int[] lut = new int[LUT_SIZE];
+            for (int i = 0; i < LUT_SIZE; i++) {
+                lut[i] = packRGBA(data[i * 3], data[i * 3 + 1], data[i * 3 + 2]);
+            }
+            return lut;
+        } else if (data.length >= 0x40 * 3) {
+            int[] colors = new int[0x40];
+            for (int i = 0; i < 0x40; i++) {
+                colors[i] = ((data[i * 3] & 0xFF) << 16) | ((data[i * 3 + 1] & 0xFF) << 8) | (data[i * 3 + 2] & 0xFF);
+            }
+            return buildLUT(colors);
+        }
+
+        throw new IOException("Palette file is too short: " + data.length + " bytes");
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core;
+
+import java.nio.file.Path;
+
+import com.lattenes.Core.APU.APU;
+import com.lattenes.Core.CPU.MOS6502;
+import com.lattenes.Core.Cartridge.Cartridge;
+import com.lattenes.Core.Cartridge.NSFFile;
+import com.lattenes.Emulator.IAudioOutput;
+
+// Plays NSF tunes on the CPU and APU alone. INIT is called once per song,
+// PLAY every playSpeed microseconds. The PPU exists only so register
+// writes have somewhere to go, it's never clocked.
+public class NSFPlayer {
+    private static final double CPU_CLOCK = 1789773.0;
+    // Where INIT and PLAY return to, nothing is mapped there
+    private static final int RETURN_ADDRESS = 0x5FF6;
+    // A routine that hasn't returned after this long is left running,
+    // some tunes never return from INIT and play from an endless loop
+    private static final long INIT_TIMEOUT = 1789773L;
+
+    private final NSFFile nsf;
+    private final double playPeriod;
+    private int sampleRate = 44100;
+    private IAudioOutput audio = null;
+
+    private Cartridge cartridge;
+    private Memory memory;
+    private APU NESAPU;
+    private MOS6502 CPU;
+    private boolean routineRunning = false;
+    private double nextPlay = 0;
+
+    public NSFPlayer(Path path) throws Exception {
+        nsf = new NSFFile(path);
+        playPeriod = nsf.playSpeed * CPU_CLOCK / 1e6;
+    }
+
+    public NSFFile getFile() {
+        return nsf;
+    }
+
+    public void setAudioSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+        if (NESAPU != null) {
+            NESAPU.setSampleRate(sampleRate);
+        }
+    }
+
+    public void attachAudioOutput(IAudioOutput audio) {
+        this.audio = audio;
+    }
+
+    public long getCycleCount() {
+        return memory == null ? 0 : memory.cpuCycles;
+    }
+
+    // Powers everything up fresh and runs the song's INIT, songs count
+    // from 1
+    public void startSong(int song) {
+        cartridge = new Cartridge(nsf);
+        NESAPU = new APU();
+        NESAPU.setSampleRate(sampleRate);
+        memory = new Memory(cartridge, new PPU(cartridge), NESAPU);
+        CPU = new MOS6502(memory, false);
+        CPU.reset();
+
+        for (int address = 0x4000; address <= 0x4013; address++) {
+            memory.writeWord(address, (byte) 0);
+        }
+        memory.writeWord(0x4015, (byte) 0x0F);
+        memory.writeWord(0x4017, (byte) 0x40);
+
+        // A = song index, X = 0 for NTSC
+        CPU.callSubroutine(nsf.initAddress, RETURN_ADDRESS, song - 1, 0);
+        routineRunning = true;
+        long timeout = memory.cpuCycles + INIT_TIMEOUT;
+        while (routineRunning && memory.cpuCycles < timeout) {
+            runCycle();
+        }
+        nextPlay = memory.cpuCycles;
+    }
+
+    // Calls PLAY if the last call has returned and runs until the next one
+    // is due
+    public void runFrame() {
+        if (!routineRunning) {
+            CPU.callSubroutine(nsf.playAddress, RETURN_ADDRESS, 0, 0);
+            routineRunning = true;
+        }
+
+        nextPlay += playPeriod;
+        long end = (long) nextPlay;
+        while (memory.cpuCycles < end) {
+            runCycle();
+        }
+    }
+
+    // One CPU cycle, the DMC fetches the same way it does in System.tick
+    private void runCycle() {
+        memory.cpuCycles++;
+        memory.DMCStall += memory.fetchDMCSampleIfDue();
+
+        if (memory.DMCStall > 0) {
+            memory.DMCStall--;
+        } else if (routineRunning) {
+            CPU.clock();
+            routineRunning = !CPU.hasReturnedTo(RETURN_ADDRESS);
+        }
+
+        if (audio != null && NESAPU.sampleDue(memory.cpuCycles)) {
+            NESAPU.runUntil(memory.cpuCycles);
+            audio.outputSample(NESAPU.getSample());
+        }
+    }
+}
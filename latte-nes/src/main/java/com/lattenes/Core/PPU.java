@@ -53,7 +53,6 @@ package com.lattenes.Core;
 
 import com.lattenes.Core.Cartridge.Cartridge;
 import com.lattenes.Core.Cartridge.Mirror;
-import com.lattenes.Util.Tuple;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -62,14 +61,16 @@ import java.util.EnumSet;
 
 public class PPU {
     private byte[] palletteTable;
-    private float[][] paletteColors;
+    private int[] paletteLUT;
     private byte[] vRAM;
     private byte[] SecondaryOAMData;
     private int cycles;
     private int scanline;
     private byte spritesOnScanline;
     byte[] OAMData;
-    float[] screen;
+    private IFrameBuffer frameBuffer;
+    private ByteBuffer backBuffer;
+    private boolean indexedOutput;
     boolean frameReady = false;
 
     private Cartridge cartridge;
@@ -138,10 +139,15 @@ public class PPU {
     private EnumSet<PPUStatusEnum> statusRegister = EnumSet.noneOf(PPUStatusEnum.class);
     private EnumSet<PPUMaskEnum> maskRegister = EnumSet.noneOf(PPUMaskEnum.class);
     private EnumSet<ControlRegisterEnum> controlRegister = EnumSet.noneOf(ControlRegisterEnum.class);
+
+    // values() copies the array on every call
+    private static final PPUStatusEnum[] STATUS_FLAGS = PPUStatusEnum.values();
+    private static final PPUMaskEnum[] MASK_FLAGS = PPUMaskEnum.values();
+    private static final ControlRegisterEnum[] CONTROL_FLAGS = ControlRegisterEnum.values();
     
     private void byteToStatusEnumSet(byte value) {
         statusRegister.clear();
-        for (PPUStatusEnum e : PPUStatusEnum.values()) {
+        for (PPUStatusEnum e : STATUS_FLAGS) {
             if ((value & e.value) == e.value) {
                 statusRegister.add(e);
             }
@@ -151,7 +157,7 @@ public class PPU {
     
     private void byteToMaskEnumSet(byte value) {
         maskRegister.clear();
-        for (PPUMaskEnum maskEnum : PPUMaskEnum.values()) {
+        for (PPUMaskEnum maskEnum : MASK_FLAGS) {
             if ((value & maskEnum.value) == maskEnum.value) {
                 maskRegister.add(maskEnum);
             }
@@ -160,18 +166,20 @@ public class PPU {
 
     private void byteToControlEnumSet(byte value) {
         controlRegister.clear();
-        for (ControlRegisterEnum controlEnum : ControlRegisterEnum.values()) {
+        for (ControlRegisterEnum controlEnum : CONTROL_FLAGS) {
             if ((value & controlEnum.value) == controlEnum.value) {
                 controlRegister.add(controlEnum);
             }
         }
     }
 
+    // Read on every $2002 poll, so the flags are tested one by one
+    // instead of iterating the set. Unused never makes it in.
     private byte statusEnumSetToByte() {
         byte result = 0x00;
-        for (PPUStatusEnum statusEnum : statusRegister) {
-            result |= statusEnum.value;
-        }
+        if (statusRegister.contains(PPUStatusEnum.SpriteOverflow)) result |= PPUStatusEnum.SpriteOverflow.value;
+        if (statusRegister.contains(PPUStatusEnum.Sprite0Hit)) result |= PPUStatusEnum.Sprite0Hit.value;
+        if (statusRegister.contains(PPUStatusEnum.VerticalBlank)) result |= PPUStatusEnum.VerticalBlank.value;
         return result;
     }
 
@@ -205,6 +213,9 @@ public class PPU {
 
     private byte dataBuffer;
 
+    private int grayscaleMask = 0x3F;
+    private int emphasisBits = 0;
+
     // Data shifters
     private int backgroundShiftPatternLoByte = 0;
     private int backgroundShiftPatternHiByte = 0;
@@ -219,16 +230,47 @@ public class PPU {
     private int bgNextTileID = 0;
     private int bgNextTileAttributes = 0;
 
+    // Frame skipping, a ratio of N draws one frame out of every N + 1.
+    // Skipped frames still run every timing side effect, only the palette
+    // lookup and the framebuffer write are left out.
+    private int frameSkipRatio = 0;
+    private int frameSkipCounter = 0;
+    private boolean skipRendering = false;
+    private boolean lastFrameSkipped = false;
+    private long renderedFrames = 0;
+    private long skippedFrames = 0;
+
+    // A dot is 2/3 of a color subcarrier cycle, so a 341 * 262 dot frame
+    // is a third of a cycle more than a whole number of them and the
+    // phase the picture starts on moves by one each frame
+    private int burstPhase = 0;
+
+    // Headless runs draw nothing. Dots on lines where sprite 0 can't hit
+    // only do the work the CPU can see, see clockTiming.
+    private boolean headless = false;
+    // Headless dots are also run lazily. They're counted by deferDots and
+    // run in one go when the CPU touches the PPU, or when vblank or the end
+    // of the frame is due.
+    private static final int VBLANK_DOT = 242 * 341 + 1;
+    private static final int FRAME_END_DOT = 262 * 341 - 1;
+    private int pendingDots = 0;
+    private int dotsToEvent = 1;
+
+    // Pipelined rendering, see PPURenderPipeline
+    PPUWriteLog writeLog = null;
+    PPURenderPipeline renderPipeline = null;
+    boolean renderingOffloaded = false;
+
+    private volatile IFrameListener frameListener = null;
+
     public byte[] dumpState() {
+        catchUp();
         ArrayList<byte[]> fieldArray = new ArrayList<byte[]>();
         fieldArray.add(palletteTable);
         fieldArray.add(vRAM);
         fieldArray.add(SecondaryOAMData);
         fieldArray.add(OAMData);
 
-        byte[] screenBytes = new byte[screen.length * (Float.SIZE / 8)];
-        ByteBuffer.wrap(screenBytes).asFloatBuffer().put(screen);
-        fieldArray.add(screenBytes);
 
         fieldArray.add(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(cycles).array());
         fieldArray.add(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(scanline).array());
@@ -261,6 +303,7 @@ public class PPU {
         fieldArray.add(ByteBuffer.allocate(1).order(ByteOrder.LITTLE_ENDIAN).put(statusEnumSetToByte()).array());
         fieldArray.add(ByteBuffer.allocate(1).order(ByteOrder.LITTLE_ENDIAN).put(maskEnumSetToByte()).array());
         fieldArray.add(ByteBuffer.allocate(1).order(ByteOrder.LITTLE_ENDIAN).put(controlEnumSetToByte()).array());
+        fieldArray.add(ByteBuffer.allocate(1).order(ByteOrder.LITTLE_ENDIAN).put((byte) burstPhase).array());
 
         int size = 0;
 
@@ -294,11 +337,6 @@ public class PPU {
         for (int i = 0; i < OAMData.length; i++) {
             OAMData[i] = state[k++];
         }
-        byte[] screenBytes = new byte[screen.length * (Float.SIZE / 8)];
-        for (int i = 0; i < screenBytes.length; i++) {
-            screenBytes[i] = state[k++];
-        }
-        ByteBuffer.wrap(screenBytes).asFloatBuffer().get(screen);
         cycles = ByteBuffer.wrap(state, k, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
         k += 4;
         scanline = ByteBuffer.wrap(state, k, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
@@ -342,8 +380,93 @@ public class PPU {
         }
         ByteBuffer.wrap(spriteShiftersHiAsBytes).asShortBuffer().get(spriteShiftPatternHiByte);
         byteToStatusEnumSet(state[k++]);
-        byteToMaskEnumSet(state[k++]);
+        byteToMaskEnumSet(state[k]);
+        updateColorModifiers(state[k++]);
         byteToControlEnumSet(state[k++]);
+        burstPhase = state[k++];
+    }
+
+    // Bytes saveState writes
+    public int getStateSize() {
+        return palletteTable.length + vRAM.length + SecondaryOAMData.length + OAMData.length
+             + 2 * Integer.BYTES + 6 + 2 * Integer.BYTES + 2 * Short.BYTES + 1
+             + 7 * Integer.BYTES + 2 * spriteShiftPatternLoByte.length * Short.BYTES
+             + 3 + 1;
+    }
+
+    // The framebuffer isn't part of the snapshot, run-ahead only restores
+    // state between frames and the next rendered frame overwrites it
+    public void saveState(ByteBuffer state) {
+        catchUp();
+        state.put(palletteTable);
+        state.put(vRAM);
+        state.put(SecondaryOAMData);
+        state.put(OAMData);
+        state.putInt(cycles);
+        state.putInt(scanline);
+        state.put(spritesOnScanline);
+        state.put((byte) (sprite0HitPossible ? 1 : 0));
+        state.put((byte) (sprite0Rendering ? 1 : 0));
+        state.put((byte) (addressLatch ? 1 : 0));
+        state.put((byte) (reqNMI ? 1 : 0));
+        state.put((byte) (frameReady ? 1 : 0));
+        state.putInt(VRAMAddress);
+        state.putInt(TRAMAddress);
+        state.putShort(fineXScroll);
+        state.putShort(OAMAddress);
+        state.put(dataBuffer);
+        state.putInt(backgroundShiftPatternLoByte);
+        state.putInt(backgroundShiftPatternHiByte);
+        state.putInt(backgroundShiftAttributeLoByte);
+        state.putInt(backgroundShiftAttributeHiByte);
+        state.putInt(bgNextTile);
+        state.putInt(bgNextTileID);
+        state.putInt(bgNextTileAttributes);
+        for (int i = 0; i < spriteShiftPatternLoByte.length; i++) {
+            state.putShort(spriteShiftPatternLoByte[i]);
+            state.putShort(spriteShiftPatternHiByte[i]);
+        }
+        state.put(statusEnumSetToByte());
+        state.put(maskEnumSetToByte());
+        state.put(controlEnumSetToByte());
+        state.put((byte) burstPhase);
+    }
+
+    public void loadState(ByteBuffer state) {
+        state.get(palletteTable);
+        state.get(vRAM);
+        state.get(SecondaryOAMData);
+        state.get(OAMData);
+        cycles = state.getInt();
+        scanline = state.getInt();
+        spritesOnScanline = state.get();
+        sprite0HitPossible = state.get() == 1;
+        sprite0Rendering = state.get() == 1;
+        addressLatch = state.get() == 1;
+        reqNMI = state.get() == 1;
+        frameReady = state.get() == 1;
+        VRAMAddress = state.getInt();
+        TRAMAddress = state.getInt();
+        fineXScroll = state.getShort();
+        OAMAddress = state.getShort();
+        dataBuffer = state.get();
+        backgroundShiftPatternLoByte = state.getInt();
+        backgroundShiftPatternHiByte = state.getInt();
+        backgroundShiftAttributeLoByte = state.getInt();
+        backgroundShiftAttributeHiByte = state.getInt();
+        bgNextTile = state.getInt();
+        bgNextTileID = state.getInt();
+        bgNextTileAttributes = state.getInt();
+        for (int i = 0; i < spriteShiftPatternLoByte.length; i++) {
+            spriteShiftPatternLoByte[i] = state.getShort();
+            spriteShiftPatternHiByte[i] = state.getShort();
+        }
+        byteToStatusEnumSet(state.get());
+        byte mask = state.get();
+        byteToMaskEnumSet(mask);
+        updateColorModifiers(mask);
+        byteToControlEnumSet(state.get());
+        burstPhase = state.get();
     }
 
     public PPU(Cartridge cartridge) {
@@ -352,8 +475,8 @@ public class PPU {
         this.vRAM = new byte[0x800];
         this.OAMData = new byte[0x100];
         this.SecondaryOAMData = new byte[0x8 * 4];
-        this.paletteColors = new float[0x40][3];
-        this.screen = new float[256 * 240 * 4];
+        this.paletteLUT = NESPalette.createDefault();
+        setFrameBuffer(new DoubleFrameBuffer(PixelFormat.RGBA8));
         this.spriteShiftPatternLoByte = new short[8];
         this.spriteShiftPatternHiByte = new short[8];
         this.cycles = 0;
@@ -367,278 +490,6 @@ public class PPU {
 
         this.reqNMI = false;
         this.addressLatch = false;
-
-        // Initialize palette colors
-        // Using the 2C02 layout
-        // https://www.nesdev.org/wiki/PPU_palettes#2C02
-
-        { 
-            // Colors 0x0 - 0xF
-            paletteColors[0x00][0] = 84.0f;
-            paletteColors[0x00][1] = 84.0f;
-            paletteColors[0x00][2] = 84.0f;
-
-            paletteColors[0x01][0] = 0.0f;
-            paletteColors[0x01][1] = 30.0f;
-            paletteColors[0x01][2] = 116.0f;
-
-            paletteColors[0x02][0] = 8.0f;
-            paletteColors[0x02][1] = 16.0f;
-            paletteColors[0x02][2] = 144.0f;
-
-            paletteColors[0x03][0] = 48.0f;
-            paletteColors[0x03][1] = 0.0f;
-            paletteColors[0x03][2] = 136.0f;
-
-            paletteColors[0x04][0] = 68.0f;
-            paletteColors[0x04][1] = 0.0f;
-            paletteColors[0x04][2] = 100.0f;
-
-            paletteColors[0x05][0] = 92.0f;
-            paletteColors[0x05][1] = 0.0f;
-            paletteColors[0x05][2] = 48.0f;
-
-            paletteColors[0x06][0] = 84.0f;
-            paletteColors[0x06][1] = 4.0f;
-            paletteColors[0x06][2] = 0.0f;
-
-            paletteColors[0x07][0] = 60.0f;
-            paletteColors[0x07][1] = 24.0f;
-            paletteColors[0x07][2] = 0.0f;
-
-            paletteColors[0x08][0] = 32.0f;
-            paletteColors[0x08][1] = 42.0f;
-            paletteColors[0x08][2] = 0.0f;
-
-            paletteColors[0x09][0] = 8.0f;
-            paletteColors[0x09][1] = 58.0f;
-            paletteColors[0x09][2] = 0.0f;
-
-            paletteColors[0x0a][0] = 0.0f;
-            paletteColors[0x0a][1] = 64.0f;
-            paletteColors[0x0a][2] = 0.0f;
-
-            paletteColors[0x0b][0] = 0.0f;
-            paletteColors[0x0b][1] = 60.0f;
-            paletteColors[0x0b][2] = 0.0f;
-
-            paletteColors[0x0c][0] = 0.0f;
-            paletteColors[0x0c][1] = 50.0f;
-            paletteColors[0x0c][2] = 60.0f;
-
-            paletteColors[0x0d][0] = 0.0f;
-            paletteColors[0x0d][1] = 0.0f;
-            paletteColors[0x0d][2] = 0.0f;
-
-            paletteColors[0x0e][0] = 0.0f;
-            paletteColors[0x0e][1] = 0.0f;
-            paletteColors[0x0e][2] = 0.0f;
-
-            paletteColors[0x0f][0] = 0.0f;
-            paletteColors[0x0f][1] = 0.0f;
-            paletteColors[0x0f][2] = 0.0f;
-
-            // Colors 0x10 - 0x1F
-            paletteColors[0x10][0] = 152.0f;
-            paletteColors[0x10][1] = 150.0f;
-            paletteColors[0x10][2] = 152.0f;
-
-            paletteColors[0x11][0] = 8.0f;
-            paletteColors[0x11][1] = 76.0f;
-            paletteColors[0x11][2] = 196.0f;
-
-            paletteColors[0x12][0] = 48.0f;
-            paletteColors[0x12][1] = 50.0f;
-            paletteColors[0x12][2] = 236.0f;
-
-            paletteColors[0x13][0] = 92.0f;
-            paletteColors[0x13][1] = 30.0f;
-            paletteColors[0x13][2] = 228.0f;
-
-            paletteColors[0x14][0] = 136.0f;
-            paletteColors[0x14][1] = 20.0f;
-            paletteColors[0x14][2] = 176.0f;
-
-            paletteColors[0x15][0] = 160.0f;
-            paletteColors[0x15][1] = 20.0f;
-            paletteColors[0x15][2] = 100.0f;
-
-            paletteColors[0x16][0] = 152.0f;
-            paletteColors[0x16][1] = 34.0f;
-            paletteColors[0x16][2] = 32.0f;
-
-            paletteColors[0x17][0] = 120.0f;
-            paletteColors[0x17][1] = 60.0f;
-            paletteColors[0x17][2] = 0.0f;
-
-            paletteColors[0x18][0] = 84.0f;
-            paletteColors[0x18][1] = 90.0f;
-            paletteColors[0x18][2] = 0.0f;
-
-            paletteColors[0x19][0] = 40.0f;
-            paletteColors[0x19][1] = 114.0f;
-            paletteColors[0x19][2] = 0.0f;
-
-            paletteColors[0x1a][0] = 8.0f;
-            paletteColors[0x1a][1] = 124.0f;
-            paletteColors[0x1a][2] = 0.0f;
-
-            paletteColors[0x1b][0] = 0.0f;
-            paletteColors[0x1b][1] = 118.0f;
-            paletteColors[0x1b][2] = 40.0f;
-
-            paletteColors[0x1c][0] = 0.0f;
-            paletteColors[0x1c][1] = 102.0f;
-            paletteColors[0x1c][2] = 120.0f;
-
-            paletteColors[0x1d][0] = 0.0f;
-            paletteColors[0x1d][1] = 0.0f;
-            paletteColors[0x1d][2] = 0.0f;
-
-            paletteColors[0x1e][0] = 0.0f;
-            paletteColors[0x1e][1] = 0.0f;
-            paletteColors[0x1e][2] = 0.0f;
-
-            paletteColors[0x1f][0] = 0.0f;
-            paletteColors[0x1f][1] = 0.0f;
-            paletteColors[0x1f][2] = 0.0f;
-
-            // Colors 0x20 - 0x2F
-            paletteColors[0x20][0] = 236.0f;
-            paletteColors[0x20][1] = 238.0f;
-            paletteColors[0x20][2] = 236.0f;
-
-            paletteColors[0x21][0] = 76.0f;
-            paletteColors[0x21][1] = 154.0f;
-            paletteColors[0x21][2] = 236.0f;
-
-            paletteColors[0x22][0] = 120.0f;
-            paletteColors[0x22][1] = 124.0f;
-            paletteColors[0x22][2] = 236.0f;
-
-            paletteColors[0x23][0] = 176.0f;
-            paletteColors[0x23][1] = 98.0f;
-            paletteColors[0x23][2] = 236.0f;
-
-            paletteColors[0x24][0] = 228.0f;
-            paletteColors[0x24][1] = 84.0f;
-            paletteColors[0x24][2] = 236.0f;
-
-            paletteColors[0x25][0] = 236.0f;
-            paletteColors[0x25][1] = 88.0f;
-            paletteColors[0x25][2] = 180.0f;
-
-            paletteColors[0x26][0] = 236.0f;
-            paletteColors[0x26][1] = 106.0f;
-            paletteColors[0x26][2] = 100.0f;
-
-            paletteColors[0x27][0] = 212.0f;
-            paletteColors[0x27][1] = 136.0f;
-            paletteColors[0x27][2] = 32.0f;
-
-            paletteColors[0x28][0] = 160.0f;
-            paletteColors[0x28][1] = 170.0f;
-            paletteColors[0x28][2] = 0.0f;
-
-            paletteColors[0x29][0] = 116.0f;
-            paletteColors[0x29][1] = 196.0f;
-            paletteColors[0x29][2] = 0.0f;
-
-            paletteColors[0x2a][0] = 76.0f;
-            paletteColors[0x2a][1] = 208.0f;
-            paletteColors[0x2a][2] = 32.0f;
-
-            paletteColors[0x2b][0] = 56.0f;
-            paletteColors[0x2b][1] = 204.0f;
-            paletteColors[0x2b][2] = 108.0f;
-
-            paletteColors[0x2c][0] = 56.0f;
-            paletteColors[0x2c][1] = 180.0f;
-            paletteColors[0x2c][2] = 204.0f;
-
-            paletteColors[0x2d][0] = 60.0f;
-            paletteColors[0x2d][1] = 60.0f;
-            paletteColors[0x2d][2] = 60.0f;
-
-            paletteColors[0x2e][0] = 0.0f;
-            paletteColors[0x2e][1] = 0.0f;
-            paletteColors[0x2e][2] = 0.0f;
-
-            paletteColors[0x2f][0] = 0.0f;
-            paletteColors[0x2f][1] = 0.0f;
-            paletteColors[0x2f][2] = 0.0f;
-
-            // Colors 0x30 - 0x3F
-            paletteColors[0x30][0] = 236.0f;
-            paletteColors[0x30][1] = 238.0f;
-            paletteColors[0x30][2] = 236.0f;
-
-            paletteColors[0x31][0] = 168.0f;
-            paletteColors[0x31][1] = 204.0f;
-            paletteColors[0x31][2] = 236.0f;
-
-            paletteColors[0x32][0] = 188.0f;
-            paletteColors[0x32][1] = 188.0f;
-            paletteColors[0x32][2] = 236.0f;
-
-            paletteColors[0x33][0] = 212.0f;
-            paletteColors[0x33][1] = 178.0f;
-            paletteColors[0x33][2] = 236.0f;
-
-            paletteColors[0x34][0] = 236.0f;
-            paletteColors[0x34][1] = 174.0f;
-            paletteColors[0x34][2] = 236.0f;
-
-            paletteColors[0x35][0] = 236.0f;
-            paletteColors[0x35][1] = 174.0f;
-            paletteColors[0x35][2] = 212.0f;
-
-            paletteColors[0x36][0] = 236.0f;
-            paletteColors[0x36][1] = 180.0f;
-            paletteColors[0x36][2] = 176.0f;
-
-            paletteColors[0x37][0] = 228.0f;
-            paletteColors[0x37][1] = 196.0f;
-            paletteColors[0x37][2] = 144.0f;
-
-            paletteColors[0x38][0] = 204.0f;
-            paletteColors[0x38][1] = 210.0f;
-            paletteColors[0x38][2] = 120.0f;
-
-            paletteColors[0x39][0] = 180.0f;
-            paletteColors[0x39][1] = 222.0f;
-            paletteColors[0x39][2] = 120.0f;
-
-            paletteColors[0x3a][0] = 168.0f;
-            paletteColors[0x3a][1] = 226.0f;
-            paletteColors[0x3a][2] = 144.0f;
-
-            paletteColors[0x3b][0] = 152.0f;
-            paletteColors[0x3b][1] = 226.0f;
-            paletteColors[0x3b][2] = 180.0f;
-
-            paletteColors[0x3c][0] = 160.0f;
-            paletteColors[0x3c][1] = 214.0f;
-            paletteColors[0x3c][2] = 228.0f;
-
-            paletteColors[0x3d][0] = 160.0f;
-            paletteColors[0x3d][1] = 162.0f;
-            paletteColors[0x3d][2] = 160.0f;
-
-            paletteColors[0x3e][0] = 0.0f;
-            paletteColors[0x3e][1] = 0.0f;
-            paletteColors[0x3e][2] = 0.0f;
-
-            paletteColors[0x3f][0] = 0.0f;
-            paletteColors[0x3f][1] = 0.0f;
-            paletteColors[0x3f][2] = 0.0f;
-        }
-
-        for (int i = 0; i < 0x40; i++) {
-            paletteColors[i][0] /= 255.0f;
-            paletteColors[i][1] /= 255.0f;
-            paletteColors[i][2] /= 255.0f;
-        }
     }
 
     private short getIncrement() {
@@ -649,16 +500,41 @@ public class PPU {
         }
     }
 
-    private void setPixel(int x, int y, float r, float g, float b) {
+    private void setPixel(int x, int y, int colorIndex) {
         if (x < 0 || x > 255 || y < 0 || y > 239) {
             return;
         }
 
-        int index = (239 - y) * 256 * 4 + x * 4;
-        screen[index + 0] = r;
-        screen[index + 1] = g;
-        screen[index + 2] = b;
-        screen[index + 3] = 1.0f;
+        int offset = y * 256 + x;
+        if (indexedOutput) {
+            backBuffer.putShort(offset << 1, (short) colorIndex);
+        } else {
+            backBuffer.putInt(offset << 2, paletteLUT[colorIndex]);
+        }
+    }
+
+    public void setFrameBuffer(IFrameBuffer frameBuffer) {
+        this.frameBuffer = frameBuffer;
+        this.backBuffer = frameBuffer.getBackBuffer();
+        this.indexedOutput = frameBuffer.getFormat() == PixelFormat.INDEXED;
+    }
+
+    public IFrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    // Grayscale keeps only the brightness bits of the color, and the
+    // emphasis bits pick one of the 8 color sets in the palette table
+    private void updateColorModifiers(byte mask) {
+        grayscaleMask = (mask & PPUMaskEnum.Grayscale.value) != 0 ? 0x30 : 0x3F;
+        emphasisBits = (mask & 0xE0) << 1;
+    }
+
+    public void setPaletteLUT(int[] lut) {
+        if (lut.length != NESPalette.LUT_SIZE) {
+            throw new IllegalArgumentException("Palette table must have " + NESPalette.LUT_SIZE + " entries");
+        }
+        paletteLUT = lut;
     }
 
     private void setLatchedVramAddr(byte value) {
@@ -708,9 +584,18 @@ public class PPU {
         return dataByte;
     }
  
+    int getDotPosition() {
+        return (scanline + 1) * 341 + cycles;
+    }
+
     public byte readPPUFromCPU(int address) {
+        catchUp();
         byte data = 0x00;
         address &= 0x7;
+        if (writeLog != null && (address == 2 || address == 7)) {
+            // Status and data reads change the PPU state too
+            writeLog.record(getDotPosition(), PPUWriteLog.REGISTER_READ, address, (byte) 0);
+        }
         switch (address) {
             case 0:
                 // Control Register - cannot be read 
@@ -754,7 +639,11 @@ public class PPU {
     }
 
     public void writeToPPUFromCPU(int address, byte value) {
+        catchUp();
         address &= 0x7;
+        if (writeLog != null) {
+            writeLog.record(getDotPosition(), PPUWriteLog.REGISTER_WRITE, address, value);
+        }
         switch (address) {
             case 0:
                 // Control register
@@ -775,6 +664,7 @@ public class PPU {
             case 1:
                 // Mask register
                 byteToMaskEnumSet(value);
+                updateColorModifiers(value);
                 break;
             case 2:
                 // Status register - can't write to this register
@@ -806,6 +696,14 @@ public class PPU {
         }
     }
 
+    void writeOAMFromDMA(int address, byte value) {
+        catchUp();
+        if (writeLog != null) {
+            writeLog.record(getDotPosition(), PPUWriteLog.OAM_DMA, address, value);
+        }
+        OAMData[address] = value;
+    }
+
     private void writeToPPUBus(int address, byte value) {
         address &= 0x3FFF;
         if (cartridge.writeWordFromPPU(address, value)) {
@@ -859,10 +757,10 @@ public class PPU {
     private byte readFromPPUBus(int address) {
         byte data = 0x00;
         address &= 0x3FFF;
-        Tuple<Boolean, Byte> cartridgeRead = cartridge.readWordFromPPU(address);
-        if (cartridgeRead.first) {
+        int cartridgeData = cartridge.readCHR(address);
+        if (cartridgeData >= 0) {
             // CHR ROM read or internal pattern table
-            data = cartridgeRead.second;
+            data = (byte) cartridgeData;
         } else if (address >= 0x2000 && address <= 0x3EFF) {
             // RAM read
             int nametable = (address & VRAMAddressEnum.NametableSel.value) >> 10;
@@ -1000,18 +898,194 @@ public class PPU {
         }
     }
 
-    public void clock() {
+    // Picks the background or sprite pixel for the current dot, sets the
+    // sprite 0 hit flag and draws it
+    private void composePixel(boolean drawPixel) {
+        int backgroundPixel = 0;
+        int backgroundPalette = 0;
 
-        if (scanline >= -1 && scanline < 240) {
+        if (maskRegister.contains(PPUMaskEnum.BGEnable)) {
+            if (maskRegister.contains(PPUMaskEnum.BGLeftColEnable) || cycles >= 9) {
+                int bitMux = (0x8000 >> fineXScroll) & 0xFFFF;
+                int plane0Pixel = (backgroundShiftPatternLoByte & bitMux) != 0 ? 1 : 0;
+                int plane1Pixel = (backgroundShiftPatternHiByte & bitMux) != 0 ? 1 : 0;
+                backgroundPixel = plane0Pixel | (plane1Pixel << 1);
+
+                int bgPaletteBit0 = (backgroundShiftAttributeLoByte & bitMux) != 0 ? 1 : 0;
+                int bgPaletteBit1 = (backgroundShiftAttributeHiByte & bitMux) != 0 ? 1 : 0;
+                backgroundPalette = bgPaletteBit0 | (bgPaletteBit1 << 1);
+            } 
+        }
+
+        int spritePixel = 0;
+        int spritePalette = 0;
+        int spritePriority = 0;
+
+        if (maskRegister.contains(PPUMaskEnum.SpriteEnable)) {
+            sprite0Rendering = false;
+            for (int i = 0; i < spritesOnScanline; i++) {
+                if (SecondaryOAMData[i * 4 + 3] == 0) {
+                    int spritePixelLo = (spriteShiftPatternLoByte[i] & 0x80) != 0 ? 1 : 0;
+                    int spritePixelHi = (spriteShiftPatternHiByte[i] & 0x80) != 0 ? 1 : 0;
+                    spritePixel = spritePixelLo | (spritePixelHi << 1);
+
+                    spritePalette = (SecondaryOAMData[i * 4 + 2] & 0x03) + 4;
+                    spritePriority = (SecondaryOAMData[i * 4 + 2] & 0x20) == 0 ? 1 : 0;
+                    
+                    if (spritePixel != 0) {
+                        if (i == 0) {
+                            sprite0Rendering = true;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        int finalPixel = 0;
+        int finalPalette = 0;
+
+        if (backgroundPixel == 0 && spritePixel == 0) {
+            // do nothing
+        } else if (backgroundPixel == 0 && spritePixel > 0) {
+            finalPixel = spritePixel;
+            finalPalette = spritePalette;
+        } else if (backgroundPixel > 0 && spritePixel == 0) {
+            finalPixel = backgroundPixel;
+            finalPalette = backgroundPalette;
+        } else {
+            if (spritePriority != 0) {
+                finalPixel = spritePixel;
+                finalPalette = spritePalette;
+            } else {
+                finalPixel = backgroundPixel;
+                finalPalette = backgroundPalette;
+            }
+
+            if (sprite0HitPossible && sprite0Rendering) {
+                boolean renderBackgroundEnabled = maskRegister.contains(PPUMaskEnum.BGEnable);
+                boolean renderSpritesEnabled = maskRegister.contains(PPUMaskEnum.SpriteEnable);
+                boolean backgroundLeft = maskRegister.contains(PPUMaskEnum.BGLeftColEnable);
+                boolean spriteLeft = maskRegister.contains(PPUMaskEnum.SpriteLeftColEnable);
+
+                if (renderBackgroundEnabled && renderSpritesEnabled) {
+                    if (!(backgroundLeft || spriteLeft)) {
+                        if (cycles >= 9 && cycles < 258) {
+                            statusRegister.add(PPUStatusEnum.Sprite0Hit);
+                        }
+                    } else {
+                        if (cycles >= 1 && cycles < 258) {
+                            statusRegister.add(PPUStatusEnum.Sprite0Hit);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (drawPixel) {
+            // A transparent pixel always has palette 0 here, so this never
+            // lands on the $3F10/$3F14/$3F18/$3F1C mirrors
+            int colorIndex = palletteTable[(finalPalette << 2) | finalPixel] & grayscaleMask;
+            setPixel(cycles - 1, scanline, colorIndex | emphasisBits);
+        }
+    }
+
+    // Copies the horizontal scroll bits from t to v at dot 257
+    private void transferAddressX() {
+        if (maskRegister.contains(PPUMaskEnum.BGEnable) || maskRegister.contains(PPUMaskEnum.SpriteEnable)) {
+            int tempAddrInfo = TRAMAddress & (VRAMAddressEnum.CoarseXScroll.value 
+                                            | 0x400);
+            VRAMAddress &= ~(VRAMAddressEnum.CoarseXScroll.value | 0x400);
+            VRAMAddress |= tempAddrInfo;
+        }
+    }
+
+    // Copies the vertical scroll bits from t to v on the pre-render line
+    private void transferAddressY() {
+        if (maskRegister.contains(PPUMaskEnum.BGEnable) || maskRegister.contains(PPUMaskEnum.SpriteEnable)) {
+            int tempAddrInfo = TRAMAddress & (VRAMAddressEnum.CoarseYScroll.value 
+                                            | VRAMAddressEnum.FineYScroll.value
+                                            | 0x800);
+            VRAMAddress &= ~(VRAMAddressEnum.FineYScroll.value | VRAMAddressEnum.CoarseYScroll.value | 0x800);
+            VRAMAddress |= tempAddrInfo;
+        }
+    }
+
+    // Fills secondary OAM with the sprites in range of this line, sets the
+    // overflow flag and whether sprite 0 can hit
+    private void evaluateSprites() {
+        for (int i = 0; i < 32; i++)
+            SecondaryOAMData[i] = (byte) 0xFF;
+        spritesOnScanline = 0;
+
+        int spriteEntry = 0;
+        sprite0HitPossible = false;
+        while (spriteEntry < 64 && spritesOnScanline < 9) {
+            int spriteY = OAMData[spriteEntry * 4] & 0xFF;
+            int diff = scanline - spriteY;
+            int spriteSize = controlRegister.contains(ControlRegisterEnum.SpriteSize) ? 16 : 8;
+
+            if (diff >= 0 && diff < spriteSize) {
+                if (spritesOnScanline < 8) {
+                    if (spriteEntry == 0) {
+                        sprite0HitPossible = true;
+                    }
+                    SecondaryOAMData[spritesOnScanline * 4] = OAMData[spriteEntry * 4];
+                    SecondaryOAMData[spritesOnScanline * 4 + 1] = OAMData[spriteEntry * 4 + 1];
+                    SecondaryOAMData[spritesOnScanline * 4 + 2] = OAMData[spriteEntry * 4 + 2];
+                    SecondaryOAMData[spritesOnScanline * 4 + 3] = OAMData[spriteEntry * 4 + 3];
+                }
+                spritesOnScanline++;
+            }
+            spriteEntry++;
+        }
+        statusRegister.remove(PPUStatusEnum.SpriteOverflow);
+        if (spritesOnScanline >= 8) {
+            statusRegister.add(PPUStatusEnum.SpriteOverflow);
+            spritesOnScanline = 8;
+        }
+    }
+
+    // A headless dot where sprite 0 can't hit. Fetches, shifters
+    // and the multiplexer only feed pixels, what's left are the scroll
+    // increments, sprite evaluation and the status flags. When evaluation
+    // finds sprite 0 for the next line, clock goes back to the full path
+    // in time for the prefetches at dot 321.
+    private void clockTiming() {
+        if (scanline < 240) {
             if (scanline == -1 && cycles == 1) {
-                statusRegister.remove(PPUStatusEnum.Sprite0Hit);
-                statusRegister.remove(PPUStatusEnum.SpriteOverflow);
-                statusRegister.remove(PPUStatusEnum.VerticalBlank);
+                startPreRenderLine();
+            }
 
-                for (int i = 0; i < 8; i++) {
-                    spriteShiftPatternLoByte[i] = 0;
-                    spriteShiftPatternHiByte[i] = 0;
+            if ((cycles & 7) == 0 && cycles != 0 && (cycles <= 256 || cycles == 328 || cycles == 336)) {
+                incrementXScroll();
+            }
+
+            if (cycles == 256) {
+                incrementYScroll();
+            } else if (cycles == 257) {
+                transferAddressX();
+                if (scanline >= 0) {
+                    evaluateSprites();
                 }
+            } else if (scanline == -1 && cycles >= 280 && cycles < 305) {
+                transferAddressY();
+            }
+        } else if (scanline == 241 && cycles == 1) {
+            startVerticalBlank();
+        }
+    }
+
+    public void clock() {
+        if (headless && timingOnly()) {
+            clockTiming();
+            nextDot();
+            return;
+        }
+
+        if (scanline >= -1 && scanline < 240) {
+            if (scanline == -1 && cycles == 1) {
+                startPreRenderLine();
             }
 
             if ((cycles >= 2 && cycles < 258) || (cycles >= 321 && cycles < 338)) {
@@ -1089,13 +1163,7 @@ public class PPU {
 
             if (cycles == 257) {
                 loadBG();
-                
-                if (maskRegister.contains(PPUMaskEnum.BGEnable) || maskRegister.contains(PPUMaskEnum.SpriteEnable)) {
-                    int tempAddrInfo = TRAMAddress & (VRAMAddressEnum.CoarseXScroll.value 
-                                                    | 0x400);
-                    VRAMAddress &= ~(VRAMAddressEnum.CoarseXScroll.value | 0x400);
-                    VRAMAddress |= tempAddrInfo;
-                }
+                transferAddressX();
             }
 
             if (cycles == 338 || cycles == 340) {
@@ -1103,47 +1171,12 @@ public class PPU {
             }
 
             if (scanline == -1 && cycles >= 280 && cycles < 305) {
-                if (maskRegister.contains(PPUMaskEnum.BGEnable) || maskRegister.contains(PPUMaskEnum.SpriteEnable)) {
-                    int tempAddrInfo = TRAMAddress & (VRAMAddressEnum.CoarseYScroll.value 
-                                                    | VRAMAddressEnum.FineYScroll.value
-                                                    | 0x800);
-                    VRAMAddress &= ~(VRAMAddressEnum.FineYScroll.value | VRAMAddressEnum.CoarseYScroll.value | 0x800);
-                    VRAMAddress |= tempAddrInfo;
-                }
+                transferAddressY();
             }
 
             // Sprite Rendering
             if (cycles == 257 && scanline >= 0) {
-                for (int i = 0; i < 32; i++)
-                    SecondaryOAMData[i] = (byte) 0xFF;
-                spritesOnScanline = 0;
-
-                int spriteEntry = 0;
-                sprite0HitPossible = false;
-                while (spriteEntry < 64 && spritesOnScanline < 9) {
-                    int spriteY = OAMData[spriteEntry * 4] & 0xFF;
-                    int diff = scanline - spriteY;
-                    int spriteSize = controlRegister.contains(ControlRegisterEnum.SpriteSize) ? 16 : 8;
-
-                    if (diff >= 0 && diff < spriteSize) {
-                        if (spritesOnScanline < 8) {
-                            if (spriteEntry == 0) {
-                                sprite0HitPossible = true;
-                            }
-                            SecondaryOAMData[spritesOnScanline * 4] = OAMData[spriteEntry * 4];
-                            SecondaryOAMData[spritesOnScanline * 4 + 1] = OAMData[spriteEntry * 4 + 1];
-                            SecondaryOAMData[spritesOnScanline * 4 + 2] = OAMData[spriteEntry * 4 + 2];
-                            SecondaryOAMData[spritesOnScanline * 4 + 3] = OAMData[spriteEntry * 4 + 3];
-                        }
-                        spritesOnScanline++;
-                    }
-                    spriteEntry++;
-                }
-                statusRegister.remove(PPUStatusEnum.SpriteOverflow);
-                if (spritesOnScanline >= 8) {
-                    statusRegister.add(PPUStatusEnum.SpriteOverflow);
-                    spritesOnScanline = 8;
-                }
+                evaluateSprites();
             }
 
             if (cycles == 340) {
@@ -1202,104 +1235,114 @@ public class PPU {
 
         if (scanline >= 241 && scanline < 261) {
             if (scanline == 241 && cycles == 1) {
-                statusRegister.add(PPUStatusEnum.VerticalBlank);
-                if (controlRegister.contains(ControlRegisterEnum.NMI)) {
-                    reqNMI = true;
-                }
+                startVerticalBlank();
             }
         }
 
-        int backgroundPixel = 0;
-        int backgroundPalette = 0;
-
-        if (maskRegister.contains(PPUMaskEnum.BGEnable)) {
-            if (maskRegister.contains(PPUMaskEnum.BGLeftColEnable) || cycles >= 9) {
-                int bitMux = (0x8000 >> fineXScroll) & 0xFFFF;
-                int plane0Pixel = (backgroundShiftPatternLoByte & bitMux) != 0 ? 1 : 0;
-                int plane1Pixel = (backgroundShiftPatternHiByte & bitMux) != 0 ? 1 : 0;
-                backgroundPixel = plane0Pixel | (plane1Pixel << 1);
-
-                int bgPaletteBit0 = (backgroundShiftAttributeLoByte & bitMux) != 0 ? 1 : 0;
-                int bgPaletteBit1 = (backgroundShiftAttributeHiByte & bitMux) != 0 ? 1 : 0;
-                backgroundPalette = bgPaletteBit0 | (bgPaletteBit1 << 1);
-            } 
+        // On skipped frames the pixel is only needed to find a sprite 0 hit
+        boolean drawPixel = !skipRendering && !renderingOffloaded && !headless;
+        if (drawPixel || sprite0HitPossible) {
+            composePixel(drawPixel);
         }
 
-        int spritePixel = 0;
-        int spritePalette = 0;
-        int spritePriority = 0;
+        nextDot();
+    }
 
-        if (maskRegister.contains(PPUMaskEnum.SpriteEnable)) {
-            sprite0Rendering = false;
-            for (int i = 0; i < spritesOnScanline; i++) {
-                if (SecondaryOAMData[i * 4 + 3] == 0) {
-                    int spritePixelLo = (spriteShiftPatternLoByte[i] & 0x80) != 0 ? 1 : 0;
-                    int spritePixelHi = (spriteShiftPatternHiByte[i] & 0x80) != 0 ? 1 : 0;
-                    spritePixel = spritePixelLo | (spritePixelHi << 1);
+    // Headless dots only need the fetches and shifters while a sprite 0 hit
+    // can still happen. Once the flag is set nothing else they do is seen
+    // until the pre-render line, where the sprite shifters are cleared.
+    private boolean timingOnly() {
+        return !sprite0HitPossible || statusRegister.contains(PPUStatusEnum.Sprite0Hit);
+    }
 
-                    spritePalette = (SecondaryOAMData[i * 4 + 2] & 0x03) + 4;
-                    spritePriority = (SecondaryOAMData[i * 4 + 2] & 0x20) == 0 ? 1 : 0;
-                    
-                    if (spritePixel != 0) {
-                        if (i == 0) {
-                            sprite0Rendering = true;
-                        }
-                        break;
-                    }
-                }
+    // Dots from here on that clockTiming has nothing to do on, apart from
+    // the coarse X increments up to dot 256 that skipXScrolls makes up
+    // for. Dot 340 is always clocked so the line ends through nextDot.
+    private int idleDots() {
+        int next;
+        if (scanline < 240) {
+            if (cycles <= 256) {
+                next = scanline == -1 && cycles <= 1 ? 1 : 256;
+            } else if (cycles == 257) {
+                next = 257;
+            } else if (scanline == -1 && cycles < 305) {
+                next = Math.max(cycles, 280);
+            } else if (cycles <= 328) {
+                next = 328;
+            } else if (cycles <= 336) {
+                next = 336;
+            } else {
+                next = 340;
             }
+        } else if (scanline == 241 && cycles <= 1) {
+            next = 1;
+        } else {
+            next = 340;
         }
+        return next - cycles;
+    }
 
-        int finalPixel = 0;
-        int finalPalette = 0;
+    // The coarse X increments clockTiming does on the next dots, one on
+    // every eighth dot from 8 on
+    private void skipXScrolls(int dots) {
+        int increments = ((cycles + dots - 1) >> 3) - ((Math.max(cycles, 1) - 1) >> 3);
+        for (int i = 0; i < increments; i++) {
+            incrementXScroll();
+        }
+    }
 
-        if (backgroundPixel == 0 && spritePixel == 0) {
-            // do nothing
-        } else if (backgroundPixel == 0 && spritePixel > 0) {
-            finalPixel = spritePixel;
-            finalPalette = spritePalette;
-        } else if (backgroundPixel > 0 && spritePixel == 0) {
-            finalPixel = backgroundPixel;
-            finalPalette = backgroundPalette;
-        } else {
-            if (spritePriority != 0) {
-                finalPixel = spritePixel;
-                finalPalette = spritePalette;
-            } else {
-                finalPixel = backgroundPixel;
-                finalPalette = backgroundPalette;
-            }
+    // Stands in for clock on headless runs
+    public void deferDots(int dots) {
+        pendingDots += dots;
+        if (pendingDots >= dotsToEvent) {
+            catchUp();
+        }
+    }
 
-            if (sprite0HitPossible && sprite0Rendering) {
-                boolean renderBackgroundEnabled = maskRegister.contains(PPUMaskEnum.BGEnable);
-                boolean renderSpritesEnabled = maskRegister.contains(PPUMaskEnum.SpriteEnable);
-                boolean backgroundLeft = maskRegister.contains(PPUMaskEnum.BGLeftColEnable);
-                boolean spriteLeft = maskRegister.contains(PPUMaskEnum.SpriteLeftColEnable);
+    private void catchUp() {
+        if (!headless) {
+            return;
+        }
 
-                if (renderBackgroundEnabled && renderSpritesEnabled) {
-                    if (!(backgroundLeft || spriteLeft)) {
-                        if (cycles >= 9 && cycles < 258) {
-                            statusRegister.add(PPUStatusEnum.Sprite0Hit);
-                        }
-                    } else {
-                        if (cycles >= 1 && cycles < 258) {
-                            statusRegister.add(PPUStatusEnum.Sprite0Hit);
-                        }
+        while (pendingDots > 0) {
+            if (timingOnly()) {
+                int idle = Math.min(idleDots(), pendingDots);
+                if (idle > 0) {
+                    if (scanline < 240 && cycles < 256) {
+                        skipXScrolls(idle);
                     }
+                    cycles += idle;
+                    pendingDots -= idle;
+                    continue;
                 }
             }
+            clock();
+            pendingDots--;
         }
 
-        float r, g, b;
+        int position = getDotPosition();
+        dotsToEvent = (position <= VBLANK_DOT ? VBLANK_DOT : FRAME_END_DOT) - position + 1;
+    }
 
-        int colorIndex = readFromPPUBus(0x3F00 + (finalPalette << 2) + finalPixel) & 0x3F;
-        float[] palette = paletteColors[colorIndex];
-        r = palette[0];
-        g = palette[1];
-        b = palette[2];
+    private void startPreRenderLine() {
+        statusRegister.remove(PPUStatusEnum.Sprite0Hit);
+        statusRegister.remove(PPUStatusEnum.SpriteOverflow);
+        statusRegister.remove(PPUStatusEnum.VerticalBlank);
 
-        setPixel(cycles - 1, scanline, r, g, b);
+        for (int i = 0; i < 8; i++) {
+            spriteShiftPatternLoByte[i] = 0;
+            spriteShiftPatternHiByte[i] = 0;
+        }
+    }
 
+    private void startVerticalBlank() {
+        statusRegister.add(PPUStatusEnum.VerticalBlank);
+        if (controlRegister.contains(ControlRegisterEnum.NMI)) {
+            reqNMI = true;
+        }
+    }
+
+    private void nextDot() {
         cycles++;
         if (cycles >= 341) {
             cycles = 0;
@@ -1308,10 +1351,91 @@ public class PPU {
             if (scanline >= 261) {
                 scanline = -1;
                 frameReady = true;
+                endFrame();
+                if (renderPipeline != null) {
+                    renderPipeline.submitFrame();
+                }
             }
         }
     }
 
+    private void endFrame() {
+        lastFrameSkipped = skipRendering || renderingOffloaded || headless;
+        if (skipRendering || headless) {
+            skippedFrames++;
+        } else {
+            renderedFrames++;
+        }
+
+        if (!lastFrameSkipped) {
+            frameBuffer.setBackBurstPhase(burstPhase);
+            frameBuffer.swapBuffers();
+            backBuffer = frameBuffer.getBackBuffer();
+        }
+        burstPhase = (burstPhase + 1) % 3;
+
+        IFrameListener listener = frameListener;
+        if (listener != null) {
+            listener.frameEnded(this);
+        }
+
+        frameSkipCounter++;
+        if (frameSkipCounter > frameSkipRatio) {
+            frameSkipCounter = 0;
+        }
+        skipRendering = frameSkipCounter != 0;
+    }
+
+    public void setFrameListener(IFrameListener listener) {
+        frameListener = listener;
+    }
+
+    public void captureDebugSnapshot(PPUDebugSnapshot snapshot) {
+        java.lang.System.arraycopy(vRAM, 0, snapshot.vRAM, 0, vRAM.length);
+        java.lang.System.arraycopy(OAMData, 0, snapshot.OAMData, 0, OAMData.length);
+        java.lang.System.arraycopy(palletteTable, 0, snapshot.palletteTable, 0, palletteTable.length);
+        cartridge.copyPatternTables(snapshot.patternTables);
+        snapshot.mirror = cartridge.getCartMirror();
+        snapshot.controlRegister = controlEnumSetToByte();
+        snapshot.maskRegister = maskEnumSetToByte();
+        snapshot.paletteLUT = paletteLUT;
+        snapshot.frame = renderedFrames + skippedFrames;
+    }
+
+    public void setFrameSkip(int ratio) {
+        frameSkipRatio = Math.max(0, ratio);
+        frameSkipCounter = 0;
+        skipRendering = false;
+    }
+
+    public void setHeadless(boolean headless) {
+        catchUp();
+        this.headless = headless;
+        dotsToEvent = 1;
+    }
+
+    public int getFrameSkip() {
+        return frameSkipRatio;
+    }
+
+    // Overrides the frame skip decision for the frame about to start,
+    // called between frames by run-ahead
+    public void setSkipNextFrame(boolean skip) {
+        skipRendering = skip;
+    }
+
+    public boolean lastFrameSkipped() {
+        return lastFrameSkipped;
+    }
+
+    public long getRenderedFrameCount() {
+        return renderedFrames;
+    }
+
+    public long getSkippedFrameCount() {
+        return skippedFrames;
+    }
+
     public boolean requestingNMI() {
         return reqNMI;
     }
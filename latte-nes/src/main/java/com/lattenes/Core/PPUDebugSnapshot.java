@@ -0,0 +1,36 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core;
+
+import com.lattenes.Core.Cartridge.Mirror;
+
+// Copy of the PPU memories a debug viewer needs, filled in at the end of a
+// frame by PPU.captureDebugSnapshot. The arrays are reused between captures.
+public class PPUDebugSnapshot {
+    public final byte[] vRAM = new byte[0x800];
+    public final byte[] OAMData = new byte[0x100];
+    public final byte[] palletteTable = new byte[0x20];
+    // Pattern tables as currently banked in at $0000-$1FFF
+    public final byte[] patternTables = new byte[0x2000];
+    public Mirror mirror;
+    public byte controlRegister;
+    public byte maskRegister;
+    public int[] paletteLUT;
+    public long frame;
+}
@@ -0,0 +1,230 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+
+import com.lattenes.Core.Cartridge.Cartridge;
+
+// Pipelined rendering: the emulation PPU only keeps the timing (scroll, vblank,
+// sprite evaluation, sprite 0 hit) and logs every CPU access to its registers,
+// along with OAM DMA, at the dot it happened. A second PPU on the render thread
+// replays that log against its own copy of VRAM, OAM, palettes and CHR, which
+// produces the same pixels as the dot renderer while the next frame is emulated.
+public class PPURenderPipeline {
+    private final PPU emulationPPU;
+    private final PPU renderPPU;
+    private final Cartridge emulationCartridge;
+    private final Cartridge renderCartridge;
+
+    private final PPUWriteLog[] logs;
+    private int recordingLog = 0;
+    private PPUWriteLog queuedLog;
+
+    private boolean frameInFlight = false;
+    private boolean displayedFrameSkipped = true;
+    private boolean resyncRequested = false;
+
+    // The render PPU draws into the presented frame buffer's back buffer,
+    // but the swap waits for submitFrame() so the emulation thread always
+    // sees the frame that was finished when its own frame ended
+    private IFrameBuffer presentedFrameBuffer;
+    private final IFrameBuffer deferredFrameBuffer = new IFrameBuffer() {
+        @Override
+        public PixelFormat getFormat() {
+            return presentedFrameBuffer.getFormat();
+        }
+
+        @Override
+        public ByteBuffer getBackBuffer() {
+            return presentedFrameBuffer.getBackBuffer();
+        }
+
+        @Override
+        public ByteBuffer getFrontBuffer() {
+            return presentedFrameBuffer.getFrontBuffer();
+        }
+
+        @Override
+        public void swapBuffers() {
+            // Done in submitFrame()
+        }
+
+        @Override
+        public void setBackBurstPhase(int phase) {
+            presentedFrameBuffer.setBackBurstPhase(phase);
+        }
+
+        @Override
+        public int getFrontBurstPhase() {
+            return presentedFrameBuffer.getFrontBurstPhase();
+        }
+    };
+
+    private final Semaphore frameQueued = new Semaphore(0);
+    private final Semaphore frameRendered = new Semaphore(1);
+    private final Thread renderThread;
+    private volatile boolean running = true;
+
+    public PPURenderPipeline(PPU emulationPPU, Cartridge cartridge) {
+        this.emulationPPU = emulationPPU;
+        this.emulationCartridge = cartridge;
+        this.renderCartridge = new Cartridge(cartridge);
+        this.renderPPU = new PPU(renderCartridge);
+        this.renderPPU.setFrameSkip(emulationPPU.getFrameSkip());
+        this.logs = new PPUWriteLog[] { new PPUWriteLog(), new PPUWriteLog() };
+        this.presentedFrameBuffer = emulationPPU.getFrameBuffer();
+        this.renderPPU.setFrameBuffer(deferredFrameBuffer);
+
+        resync();
+
+        emulationPPU.writeLog = logs[recordingLog];
+        emulationPPU.renderPipeline = this;
+        emulationPPU.renderingOffloaded = true;
+
+        renderThread = new Thread(this::renderLoop, "PPU render");
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
+    private void resync() {
+        renderPPU.loadState(emulationPPU.dumpState());
+        renderCartridge.copyCHRFrom(emulationCartridge);
+    }
+
+    // Called by the emulation PPU on the last dot of a frame
+    void submitFrame() {
+        frameRendered.acquireUninterruptibly();
+
+        // The render thread is idle now, so its finished frame (if it
+        // drew one) can be presented
+        displayedFrameSkipped = !frameInFlight || renderPPU.lastFrameSkipped();
+        if (!displayedFrameSkipped) {
+            presentedFrameBuffer.swapBuffers();
+            renderPPU.setFrameBuffer(deferredFrameBuffer);
+        }
+
+        PPUWriteLog finishedLog = logs[recordingLog];
+        recordingLog ^= 1;
+        logs[recordingLog].clear();
+        emulationPPU.writeLog = logs[recordingLog];
+
+        if (resyncRequested || finishedLog.overflowed()) {
+            // The log can't reproduce this frame, start over from the
+            // emulation PPU's state at the frame boundary
+            resyncRequested = false;
+            resync();
+            frameInFlight = false;
+            frameRendered.release();
+            return;
+        }
+
+        queuedLog = finishedLog;
+        frameInFlight = true;
+        frameQueued.release();
+    }
+
+    private void renderLoop() {
+        while (true) {
+            frameQueued.acquireUninterruptibly();
+            if (!running) {
+                return;
+            }
+
+            replay(queuedLog);
+            frameRendered.release();
+        }
+    }
+
+    private void replay(PPUWriteLog log) {
+        int next = 0;
+        final int count = log.size();
+
+        renderPPU.frameReady = false;
+        while (!renderPPU.frameReady) {
+            final int position = renderPPU.getDotPosition();
+            while (next < count && log.positionAt(next) == position) {
+                apply(log, next++);
+            }
+            renderPPU.clock();
+        }
+    }
+
+    private void apply(PPUWriteLog log, int index) {
+        switch (log.kindAt(index)) {
+            case PPUWriteLog.REGISTER_WRITE:
+                renderPPU.writeToPPUFromCPU(log.addressAt(index), log.valueAt(index));
+                break;
+            case PPUWriteLog.REGISTER_READ:
+                renderPPU.readPPUFromCPU(log.addressAt(index));
+                break;
+            case PPUWriteLog.OAM_DMA:
+                renderPPU.writeOAMFromDMA(log.addressAt(index), log.valueAt(index));
+                break;
+        }
+    }
+
+    // Only meaningful between frames, the emulation thread calls this
+    // after the PPU state was replaced (i.e. a save state was loaded)
+    public void requestResync() {
+        resyncRequested = true;
+    }
+
+    public void setFrameBuffer(IFrameBuffer frameBuffer) {
+        frameRendered.acquireUninterruptibly();
+        presentedFrameBuffer = frameBuffer;
+        renderPPU.setFrameBuffer(deferredFrameBuffer);
+        frameRendered.release();
+    }
+
+    public void setPaletteLUT(int[] lut) {
+        frameRendered.acquireUninterruptibly();
+        renderPPU.setPaletteLUT(lut);
+        frameRendered.release();
+    }
+
+    public void setFrameSkip(int ratio) {
+        frameRendered.acquireUninterruptibly();
+        renderPPU.setFrameSkip(ratio);
+        frameRendered.release();
+    }
+
+    public boolean lastFrameSkipped() {
+        return displayedFrameSkipped;
+    }
+
+    public long getRenderedFrameCount() {
+        return renderPPU.getRenderedFrameCount();
+    }
+
+    public long getSkippedFrameCount() {
+        return renderPPU.getSkippedFrameCount();
+    }
+
+    public void shutdown() {
+        frameRendered.acquireUninterruptibly();
+        running = false;
+        frameQueued.release();
+
+        emulationPPU.writeLog = null;
+        emulationPPU.renderPipeline = null;
+        emulationPPU.renderingOffloaded = false;
+    }
+}
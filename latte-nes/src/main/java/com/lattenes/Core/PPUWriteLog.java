@@ -0,0 +1,82 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core;
+
+// Per-frame record of every CPU access that changes PPU state. The arrays are
+// allocated once, a frame can't have more entries than the CPU has cycles
+// (~29781), so the capacity is never reached in normal operation.
+class PPUWriteLog {
+    static final int CAPACITY = 1 << 15;
+
+    static final int REGISTER_WRITE = 0;
+    static final int REGISTER_READ = 1;
+    static final int OAM_DMA = 2;
+
+    // Dot position is (scanline + 1) * 341 + cycle
+    private final int[] positions;
+    // Packed as kind << 16 | address << 8 | value
+    private final int[] entries;
+    private int size = 0;
+    private boolean overflowed = false;
+
+    PPUWriteLog() {
+        positions = new int[CAPACITY];
+        entries = new int[CAPACITY];
+    }
+
+    void record(int position, int kind, int address, byte value) {
+        if (size == CAPACITY) {
+            overflowed = true;
+            return;
+        }
+
+        positions[size] = position;
+        entries[size] = (kind << 16) | ((address & 0xFF) << 8) | (value & 0xFF);
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+        overflowed = false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean overflowed() {
+        return overflowed;
+    }
+
+    int positionAt(int index) {
+        return positions[index];
+    }
+
+    int kindAt(int index) {
+        return entries[index] >> 16;
+    }
+
+    int addressAt(int index) {
+        return (entries[index] >> 8) & 0xFF;
+    }
+
+    byte valueAt(int index) {
+        return (byte) entries[index];
+    }
+}
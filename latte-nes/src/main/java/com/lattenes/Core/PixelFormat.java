@@ -16,32 +16,18 @@
  * this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package com.lattenes.Core.APU;
+package com.lattenes.Core;
 
-public class WaveSampler {
-    double freq = 0;
-    double duty = 0;
-    double amp = 1;
-    double pi = 3.14159;
-    double harmonics = 20;
+public enum PixelFormat {
+    // Packed RGBA from the palette table, 4 bytes per pixel (R, G, B, A)
+    RGBA8(4),
+    // Palette table index, emphasis bits included, as a little endian
+    // 16-bit value per pixel
+    INDEXED(2);
 
-    private double approxSin(double t) {
-        double j = t * 0.15915f;
-        j = j - (int) j;
-        return 20.785 * j * (j - 0.5) * (j - 1.0);
-    }
-
-    double sample(double t) {
-        double a = 0;
-        double b = 0;
-        double p = duty * 2.0 * pi;
-
-        for (double n = 1; n < harmonics; n++) {
-            double c = n * freq * 2.0 * pi * t;
-            a += -approxSin(c) / n;
-            b += -approxSin(c - p * n) / n;
-        }
+    public final int bytesPerPixel;
 
-        return (2.0 * amp / pi) * (a - b);
+    PixelFormat(int bytesPerPixel) {
+        this.bytesPerPixel = bytesPerPixel;
     }
 }
@@ -18,11 +18,14 @@
 
 package com.lattenes.Core;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import com.lattenes.Core.APU.APU;
 import com.lattenes.Core.CPU.MOS6502;
 import com.lattenes.Core.Cartridge.Cartridge;
 import com.lattenes.Emulator.Emulator;
-import com.lattenes.Emulator.EmulatorAudio;
+import com.lattenes.Emulator.IAudioOutput;
 import com.lattenes.Util.SaveStateUtil;
 
 public class System {
@@ -32,21 +35,30 @@ public class System {
     private Cartridge cartridge;
     private APU NESAPU;
     private long systemCycleCount = 0;
+    // systemCycleCount % 3, the CPU runs when it's 0
+    private int cpuPhase = 0;
+    private boolean headless = false;
     private Emulator emulatorObj;
 
-    private double currentNesAudioTime = 0.0f;
-    private final double realAudioTimeStep = 1.0 / 44100.0;
-    private final double nesAudioTimeStep = 1.0 / 5369318.0;
+    private IAudioOutput audio;
+    private PPURenderPipeline renderPipeline;
 
-    private EmulatorAudio audio;
+    // In-memory snapshot for run-ahead, allocated once. Frames run ahead
+    // are muted so only the real timeline is heard.
+    private ByteBuffer snapshot = null;
+    private boolean runningAhead = false;
 
-    public System(String cartridgeFile) {
-        try {
-            cartridge = new Cartridge(cartridgeFile);
-        } catch (Exception e) {
-            e.printStackTrace();
-            java.lang.System.exit(-1);
-        }
+    // "sav" files: "LNES", the three section sizes, then the CPU, memory
+    // and PPU sections from dumpState
+    private static final int SAVE_MAGIC = 0x53454E4C;
+    private static final int SAVE_HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int CPU_STATE_SIZE = 17;
+    private static final int MEMORY_STATE_SIZE = 2086;
+    private static final int PPU_STATE_SIZE = 2458;
+
+    // Throws if the ROM can't be read or uses an unsupported mapper
+    public System(String cartridgeFile) throws Exception {
+        cartridge = new Cartridge(cartridgeFile);
         NESPPU = new PPU(cartridge);
         NESAPU = new APU();
         memoryManagementUnit = new Memory(cartridge, NESPPU, NESAPU);
@@ -54,6 +66,15 @@ public class System {
         CPU.reset();
     }
 
+    private void flushAfterStateChange() {
+        if (audio != null) {
+            audio.flushSamples();
+        }
+        if (emulatorObj != null) {
+            emulatorObj.keepTicking = true;
+        }
+    }
+
     public boolean frameReady() {
         return NESPPU.frameReady;
     }
@@ -62,77 +83,270 @@ public class System {
         NESPPU.frameReady = false;
     }
 
+    public void setFrameSkip(int ratio) {
+        NESPPU.setFrameSkip(ratio);
+        if (renderPipeline != null) {
+            renderPipeline.setFrameSkip(ratio);
+        }
+    }
+
+    // Nothing is drawn, for runs that only need the CPU and APU
+    public void setHeadless(boolean headless) {
+        NESPPU.setHeadless(headless);
+        this.headless = headless;
+    }
+
+    public boolean lastFrameSkipped() {
+        if (renderPipeline != null) {
+            return renderPipeline.lastFrameSkipped();
+        }
+        return NESPPU.lastFrameSkipped();
+    }
+
+    public long getRenderedFrameCount() {
+        if (renderPipeline != null) {
+            return renderPipeline.getRenderedFrameCount();
+        }
+        return NESPPU.getRenderedFrameCount();
+    }
+
+    public long getSkippedFrameCount() {
+        if (renderPipeline != null) {
+            return renderPipeline.getSkippedFrameCount();
+        }
+        return NESPPU.getSkippedFrameCount();
+    }
+
+    public void setPaletteLUT(int[] lut) {
+        NESPPU.setPaletteLUT(lut);
+        if (renderPipeline != null) {
+            renderPipeline.setPaletteLUT(lut);
+        }
+    }
+
+    public void setAudioSampleRate(int sampleRate) {
+        NESAPU.setSampleRate(sampleRate);
+    }
+
+    // Scales the audio sample rate for rate control, 1 is the set rate
+    public void setAudioRateRatio(double ratio) {
+        NESAPU.setRateRatio(ratio);
+    }
+
+    public void setFrameListener(IFrameListener listener) {
+        NESPPU.setFrameListener(listener);
+    }
+
+    public void setPipelinedRendering(boolean enabled) {
+        if (enabled && renderPipeline == null) {
+            renderPipeline = new PPURenderPipeline(NESPPU, cartridge);
+        } else if (!enabled && renderPipeline != null) {
+            renderPipeline.shutdown();
+            renderPipeline = null;
+        }
+    }
+
+    public void saveSnapshot() {
+        if (snapshot == null) {
+            int size = Long.BYTES + CPU.getStateSize() + memoryManagementUnit.getStateSize() + NESPPU.getStateSize()
+                     + NESAPU.getStateSize() + cartridge.getStateSize();
+            snapshot = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        snapshot.clear();
+        snapshot.putLong(systemCycleCount);
+        CPU.saveState(snapshot);
+        memoryManagementUnit.saveState(snapshot);
+        NESPPU.saveState(snapshot);
+        NESAPU.saveState(snapshot);
+        cartridge.saveState(snapshot);
+        snapshot.flip();
+    }
+
+    public void loadSnapshot() {
+        snapshot.rewind();
+        systemCycleCount = snapshot.getLong();
+        cpuPhase = (int) (systemCycleCount % 3);
+        CPU.loadState(snapshot);
+        memoryManagementUnit.loadState(snapshot);
+        NESPPU.loadState(snapshot);
+        NESAPU.loadState(snapshot);
+        cartridge.loadState(snapshot);
+    }
+
+    // Called once the real frame is done. Runs frames more with the input
+    // as it is now, only the last one is drawn, then goes back to the end
+    // of the real frame. The next real frame isn't drawn, what's shown is
+    // always the frame from the future.
+    public void runAhead(int frames) {
+        saveSnapshot();
+        runningAhead = true;
+        for (int i = 0; i < frames; i++) {
+            NESPPU.frameReady = false;
+            NESPPU.setSkipNextFrame(i < frames - 1);
+            do {
+                tick();
+            } while (!NESPPU.frameReady);
+        }
+        runningAhead = false;
+        loadSnapshot();
+        NESPPU.setSkipNextFrame(true);
+    }
+
+    // One CPU cycle, with the DMC and OAM DMA taking the bus first
+    private void clockCPU() {
+        memoryManagementUnit.cpuCycles++;
+        memoryManagementUnit.DMCStall += memoryManagementUnit.fetchDMCSampleIfDue();
+
+        if (memoryManagementUnit.DMCStall > 0) {
+            memoryManagementUnit.DMCStall--;
+        } else if (memoryManagementUnit.PPUReqDMA && CPU.doneProcessingInstruction()) {
+            boolean oddCycle = systemCycleCount % 2 == 1;
+            if (memoryManagementUnit.DMAWait) {
+                if(!oddCycle) {
+                    memoryManagementUnit.DMAWait = false;
+                }
+            } else {
+                if (oddCycle) {
+                    memoryManagementUnit.readDMAAddr();
+                } else {
+                    memoryManagementUnit.stepDMA();
+                }
+            }
+        } else {
+            CPU.clock();
+        }
+
+        // Headless runs don't attach an audio object, no samples are
+        // mixed then. At most one sample falls on a CPU cycle.
+        if (audio != null && !runningAhead && NESAPU.sampleDue(memoryManagementUnit.cpuCycles)) {
+            NESAPU.runUntil(memoryManagementUnit.cpuCycles);
+            audio.outputSample(NESAPU.getSample());
+        }
+    }
+
+    // Save files have a header with the section sizes, anything written
+    // by a build with a different layout is turned down instead of
+    // being loaded at the wrong offsets
+    private static boolean saveStateMatches(byte[] systemState) {
+        if (systemState.length != SAVE_HEADER_SIZE + CPU_STATE_SIZE + MEMORY_STATE_SIZE + PPU_STATE_SIZE) {
+            return false;
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(systemState).order(ByteOrder.LITTLE_ENDIAN);
+        return header.getInt() == SAVE_MAGIC
+            && header.getInt() == CPU_STATE_SIZE
+            && header.getInt() == MEMORY_STATE_SIZE
+            && header.getInt() == PPU_STATE_SIZE;
+    }
+
     public void tick() {
-        if (memoryManagementUnit.saveStateFlag) {
+        // Save state requests wait for the real timeline
+        if (!runningAhead && memoryManagementUnit.saveStateFlag) {
             memoryManagementUnit.saveStateFlag = false;
             byte[] cpuState = CPU.dumpState();
             byte[] memState = memoryManagementUnit.dumpState();
             byte[] ppuState = NESPPU.dumpState();
 
-            final int size = cpuState.length + memState.length + ppuState.length;
-            byte[] state = new byte[size];
+            ByteBuffer state = ByteBuffer.allocate(SAVE_HEADER_SIZE + cpuState.length + memState.length + ppuState.length)
+                                         .order(ByteOrder.LITTLE_ENDIAN);
+            state.putInt(SAVE_MAGIC);
+            state.putInt(cpuState.length);
+            state.putInt(memState.length);
+            state.putInt(ppuState.length);
+            state.put(cpuState);
+            state.put(memState);
+            state.put(ppuState);
 
-            java.lang.System.out.println(cpuState.length);
-            java.lang.System.out.println(memState.length);
-            java.lang.System.out.println(ppuState.length);
-
-            java.lang.System.arraycopy(cpuState, 0, state, 0, cpuState.length);
-            java.lang.System.arraycopy(memState, 0, state, cpuState.length, memState.length);
-            java.lang.System.arraycopy(ppuState, 0, state, cpuState.length + memState.length, ppuState.length);
-
-            SaveStateUtil.saveState("sav", state);
-            audio.flushSamples(false);
-            emulatorObj.keepTicking = true;
-        } else if (memoryManagementUnit.loadStateFlag) {
+            SaveStateUtil.saveState("sav", state.array());
+            flushAfterStateChange();
+        } else if (!runningAhead && memoryManagementUnit.loadStateFlag) {
             memoryManagementUnit.loadStateFlag = false;
             byte[] systemState = SaveStateUtil.loadState("sav");
-            if (systemState != null) {
-                byte[] cpuState = new byte[17];
-                byte[] memState = new byte[2086];
-                byte[] ppuState = new byte[985497];
-
-                java.lang.System.arraycopy(systemState, 0, cpuState, 0, cpuState.length);
-                java.lang.System.arraycopy(systemState, cpuState.length, memState, 0, memState.length);
-                java.lang.System.arraycopy(systemState, cpuState.length + memState.length, ppuState, 0, ppuState.length);
+            if (systemState != null && !saveStateMatches(systemState)) {
+                java.lang.System.out.println("Save state is from another version, not loaded");
+            } else if (systemState != null) {
+                ByteBuffer state = ByteBuffer.wrap(systemState, SAVE_HEADER_SIZE, systemState.length - SAVE_HEADER_SIZE);
+                byte[] cpuState = new byte[CPU_STATE_SIZE];
+                byte[] memState = new byte[MEMORY_STATE_SIZE];
+                byte[] ppuState = new byte[PPU_STATE_SIZE];
+                state.get(cpuState);
+                state.get(memState);
+                state.get(ppuState);
 
                 CPU.loadState(cpuState);
                 memoryManagementUnit.loadState(memState);
                 NESPPU.loadState(ppuState);
-                audio.flushSamples(false);
-                emulatorObj.keepTicking = true;
+                if (renderPipeline != null) {
+                    renderPipeline.requestResync();
+                }
+                flushAfterStateChange();
             }
         }
 
-        NESPPU.clock();
+        if (headless) {
+            NESPPU.deferDots(1);
+        } else {
+            NESPPU.clock();
+        }
 
-        NESAPU.clock();
+        if (cpuPhase == 0) {
+            clockCPU();
+        }
 
-        if (systemCycleCount % 3 == 0) {
-            if (memoryManagementUnit.PPUReqDMA && CPU.doneProcessingInstruction()) {
-                boolean oddCycle = systemCycleCount % 2 == 1;
-                if (memoryManagementUnit.DMAWait) {
-                    if(!oddCycle) {
-                        memoryManagementUnit.DMAWait = false;
-                    }
-                } else {
-                    if (oddCycle) {
-                        memoryManagementUnit.readDMAAddr();
-                    } else {
-                        memoryManagementUnit.stepDMA();
-                    }
-                }
-            } else {
-                CPU.clock();
-            }    
+        systemCycleCount++;
+        if (++cpuPhase == 3) {
+            cpuPhase = 0;
         }
+    }
 
-        currentNesAudioTime += nesAudioTimeStep;
-        if (currentNesAudioTime >= realAudioTimeStep) {
-            currentNesAudioTime -= realAudioTimeStep;
-            audio.outputSample(NESAPU.getSample());
+    // Runs until the PPU finishes a frame. Headless runs skip tick's save
+    // state checks and step a CPU cycle at a time, the PPU only counts its
+    // dots.
+    public void runFrame() {
+        if (!headless) {
+            do {
+                tick();
+            } while (!NESPPU.frameReady);
+            return;
         }
 
-        systemCycleCount++;
+        while (cpuPhase != 0 && !NESPPU.frameReady) {
+            NESPPU.deferDots(1);
+            systemCycleCount++;
+            if (++cpuPhase == 3) {
+                cpuPhase = 0;
+            }
+        }
+
+        // A CPU cycle at a time, plus the cycles after it where the CPU
+        // only counts down. The frame can end on one of the dots after the
+        // CPU's, those only run the PPU and the next instruction still
+        // starts after them, so stopping there changes nothing the CPU sees.
+        while (!NESPPU.frameReady) {
+            NESPPU.deferDots(1);
+            clockCPU();
+            int idle = idleCPUCycles();
+            CPU.skipIdleCycles(idle);
+            memoryManagementUnit.cpuCycles += idle;
+            NESPPU.deferDots(2 + 3 * idle);
+            systemCycleCount += 3 + 3 * idle;
+        }
+    }
+
+    // CPU cycles ahead that would only count down the current instruction,
+    // stopping before the next DMC fetch and audio sample
+    private int idleCPUCycles() {
+        if (memoryManagementUnit.DMCStall > 0) {
+            return 0;
+        }
+
+        long cycle = memoryManagementUnit.cpuCycles;
+        long idle = Math.min(CPU.getIdleCycles(), NESAPU.getDMCFetchCycle() - cycle - 1);
+        if (audio != null && !runningAhead) {
+            idle = Math.min(idle, NESAPU.cyclesUntilSample(cycle) - 1);
+        }
+        return (int) Math.max(idle, 0);
     }
 
     public long getCycleCount() {
@@ -143,16 +357,23 @@ public class System {
         CPU.endLog();
     }
 
-    public float[] getScreen() {
-        return NESPPU.screen;
+    public IFrameBuffer getFrameBuffer() {
+        return NESPPU.getFrameBuffer();
+    }
+
+    public void setFrameBuffer(IFrameBuffer frameBuffer) {
+        NESPPU.setFrameBuffer(frameBuffer);
+        if (renderPipeline != null) {
+            renderPipeline.setFrameBuffer(frameBuffer);
+        }
     }
 
     public Memory getMemory() {
         return memoryManagementUnit;
     }
 
-    public void attachEmuAudioObject(EmulatorAudio emulatorAudio) {
-        this.audio = emulatorAudio;
+    public void attachEmuAudioObject(IAudioOutput audioOutput) {
+        this.audio = audioOutput;
     }
 
     public void attachEmulatorObject(Emulator emulator) {
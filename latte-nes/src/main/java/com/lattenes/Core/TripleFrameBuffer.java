@@ -0,0 +1,102 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Frame buffer for when the PPU and the consumer run on different threads.
+// The producer owns the back buffer and the consumer owns the front buffer;
+// the third buffer sits in between and is exchanged atomically by both
+// sides, so neither ever waits on the other. The consumer calls
+// presentLatest() to pick up the newest finished frame, older frames it
+// never got to are simply overwritten.
+public class TripleFrameBuffer implements IFrameBuffer {
+    // Low two bits are the index of the middle buffer, set when it holds a
+    // frame the consumer hasn't picked up yet
+    private static final int NEW_FRAME = 0x4;
+    private static final int INDEX_MASK = 0x3;
+
+    private final PixelFormat format;
+    private final ByteBuffer[] buffers = new ByteBuffer[3];
+    private final int[] burstPhases = new int[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int backIndex = 0;
+    private int finishedIndex = 1;
+    private volatile int frontIndex = 2;
+
+    public TripleFrameBuffer(PixelFormat format) {
+        this.format = format;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(WIDTH * HEIGHT * format.bytesPerPixel)
+                                   .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    @Override
+    public PixelFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public ByteBuffer getBackBuffer() {
+        return buffers[backIndex];
+    }
+
+    @Override
+    public ByteBuffer getFrontBuffer() {
+        return buffers[frontIndex];
+    }
+
+    // Producer side. The consumer may have picked the finished buffer up
+    // already, but it can only come back to the producer on its next swap.
+    @Override
+    public ByteBuffer getFinishedBuffer() {
+        return buffers[finishedIndex];
+    }
+
+    // Producer side, publishes the finished back buffer
+    @Override
+    public void swapBuffers() {
+        finishedIndex = backIndex;
+        backIndex = middle.getAndSet(backIndex | NEW_FRAME) & INDEX_MASK;
+    }
+
+    // Producer side, written before the swap publishes the buffer
+    @Override
+    public void setBackBurstPhase(int phase) {
+        burstPhases[backIndex] = phase;
+    }
+
+    @Override
+    public int getFrontBurstPhase() {
+        return burstPhases[frontIndex];
+    }
+
+    // Consumer side, returns false if no frame was finished since the last call
+    public boolean presentLatest() {
+        if ((middle.get() & NEW_FRAME) == 0) {
+            return false;
+        }
+
+        frontIndex = middle.getAndSet(frontIndex) & INDEX_MASK;
+        return true;
+    }
+}
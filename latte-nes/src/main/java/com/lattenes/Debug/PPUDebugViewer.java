@@ -0,0 +1,304 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Debug;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+
+import com.lattenes.Core.IFrameListener;
+import com.lattenes.Core.PPU;
+import com.lattenes.Core.PPUDebugSnapshot;
+import com.lattenes.Core.Cartridge.Mirror;
+
+// Renders the nametables, pattern tables, sprites and palettes for debugging.
+// The emulation thread only copies the PPU memories into a snapshot at the end
+// of a frame; decoding them into images happens on a worker thread. Frames that
+// end while the worker is still busy are not captured.
+public class PPUDebugViewer implements IFrameListener {
+    public static final int NAMETABLE_WIDTH = 512;
+    public static final int NAMETABLE_HEIGHT = 480;
+    public static final int PATTERN_WIDTH = 256;
+    public static final int PATTERN_HEIGHT = 128;
+    public static final int SPRITE_WIDTH = 128;
+    public static final int SPRITE_HEIGHT = 128;
+    public static final int PALETTE_WIDTH = 256;
+    public static final int PALETTE_HEIGHT = 32;
+
+    private final PPUDebugSnapshot snapshot = new PPUDebugSnapshot();
+    private final Semaphore snapshotReady = new Semaphore(0);
+    private final Thread worker;
+    private volatile boolean busy = false;
+    private volatile boolean running = true;
+    private volatile boolean continuous = false;
+    private volatile File dumpDirectory = null;
+    private volatile Consumer<PPUDebugViewer> updateCallback = null;
+
+    // Palette used to color the pattern tables, 0-3 background, 4-7 sprites
+    private volatile int patternPalette = 0;
+
+    private volatile BufferedImage nametables;
+    private volatile BufferedImage patternTables;
+    private volatile BufferedImage sprites;
+    private volatile BufferedImage palettes;
+    private volatile long capturedFrame = -1;
+
+    private final int[] colors = new int[0x20];
+
+    public PPUDebugViewer() {
+        worker = new Thread(this::renderLoop, "PPU debug viewer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void frameEnded(PPU ppu) {
+        if (busy || (!continuous && dumpDirectory == null)) {
+            return;
+        }
+
+        ppu.captureDebugSnapshot(snapshot);
+        busy = true;
+        snapshotReady.release();
+    }
+
+    // Capture on every frame the worker is free for, instead of only on request
+    public void setContinuous(boolean enabled) {
+        continuous = enabled;
+    }
+
+    public void setUpdateCallback(Consumer<PPUDebugViewer> callback) {
+        updateCallback = callback;
+    }
+
+    public void setPatternPalette(int palette) {
+        patternPalette = palette & 0x07;
+    }
+
+    // Captures the next frame and writes its images as PNG files into directory
+    public void requestDump(File directory) {
+        dumpDirectory = directory;
+    }
+
+    public BufferedImage getNametables() {
+        return nametables;
+    }
+
+    public BufferedImage getPatternTables() {
+        return patternTables;
+    }
+
+    public BufferedImage getSprites() {
+        return sprites;
+    }
+
+    public BufferedImage getPalettes() {
+        return palettes;
+    }
+
+    public long getCapturedFrame() {
+        return capturedFrame;
+    }
+
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void renderLoop() {
+        while (running) {
+            try {
+                snapshotReady.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            resolveColors();
+            BufferedImage nametableImage = renderNametables();
+            BufferedImage patternImage = renderPatternTables();
+            BufferedImage spriteImage = renderSprites();
+            BufferedImage paletteImage = renderPalettes();
+            long frame = snapshot.frame;
+
+            nametables = nametableImage;
+            patternTables = patternImage;
+            sprites = spriteImage;
+            palettes = paletteImage;
+            capturedFrame = frame;
+
+            File directory = dumpDirectory;
+            if (directory != null) {
+                dumpDirectory = null;
+                writePNGs(directory);
+            }
+
+            Consumer<PPUDebugViewer> callback = updateCallback;
+            if (callback != null) {
+                callback.accept(this);
+            }
+
+            busy = false;
+        }
+    }
+
+    public void writePNGs(File directory) {
+        directory.mkdirs();
+        String prefix = "frame" + capturedFrame + "_";
+        try {
+            ImageIO.write(nametables, "png", new File(directory, prefix + "nametables.png"));
+            ImageIO.write(patternTables, "png", new File(directory, prefix + "patterns.png"));
+            ImageIO.write(sprites, "png", new File(directory, prefix + "sprites.png"));
+            ImageIO.write(palettes, "png", new File(directory, prefix + "palettes.png"));
+            java.lang.System.out.println("PPU debug images written to " + directory.getPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The palette LUT is packed as ABGR, BufferedImage wants ARGB
+    private void resolveColors() {
+        int[] lut = snapshot.paletteLUT;
+        for (int i = 0; i < 0x20; i++) {
+            int entry = i;
+            if ((entry & 0x13) == 0x10) {
+                entry &= 0x0F;
+            }
+            int abgr = lut[snapshot.palletteTable[entry] & 0x3F];
+            colors[i] = (abgr & 0xFF00FF00) | ((abgr & 0xFF) << 16) | ((abgr >> 16) & 0xFF);
+        }
+    }
+
+    private int tilePixel(int tableAddress, int tile, int x, int y) {
+        int address = tableAddress + (tile << 4) + y;
+        int lo = (snapshot.patternTables[address] >> (7 - x)) & 1;
+        int hi = (snapshot.patternTables[address + 8] >> (7 - x)) & 1;
+        return (hi << 1) | lo;
+    }
+
+    private int nametableBank(int nametable) {
+        Mirror mirror = snapshot.mirror;
+        if (mirror == Mirror.HORIZONTAL) {
+            return nametable >> 1;
+        } else if (mirror == Mirror.VERTICAL) {
+            return nametable & 1;
+        } else if (mirror == Mirror.ONE_SCREEN_UPPER) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private BufferedImage renderNametables() {
+        BufferedImage image = new BufferedImage(NAMETABLE_WIDTH, NAMETABLE_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[NAMETABLE_WIDTH];
+        int tableAddress = (snapshot.controlRegister & 0x10) != 0 ? 0x1000 : 0x0000;
+
+        for (int y = 0; y < NAMETABLE_HEIGHT; y++) {
+            int nametableY = y / 240;
+            int ty = (y % 240) >> 3;
+            int fineY = y & 7;
+
+            for (int x = 0; x < NAMETABLE_WIDTH; x++) {
+                int nametable = (nametableY << 1) | (x >> 8);
+                int base = nametableBank(nametable) << 10;
+                int tx = (x & 0xFF) >> 3;
+
+                int tile = snapshot.vRAM[base + (ty << 5) + tx] & 0xFF;
+                int attribute = snapshot.vRAM[base + 0x3C0 + ((ty >> 2) << 3) + (tx >> 2)] & 0xFF;
+                int palette = (attribute >> (((ty & 2) << 1) | (tx & 2))) & 3;
+                int pixel = tilePixel(tableAddress, tile, x & 7, fineY);
+
+                row[x] = pixel == 0 ? colors[0] : colors[(palette << 2) | pixel];
+            }
+            image.setRGB(0, y, NAMETABLE_WIDTH, 1, row, 0, NAMETABLE_WIDTH);
+        }
+
+        return image;
+    }
+
+    private BufferedImage renderPatternTables() {
+        BufferedImage image = new BufferedImage(PATTERN_WIDTH, PATTERN_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[PATTERN_WIDTH];
+        int palette = patternPalette << 2;
+
+        for (int y = 0; y < PATTERN_HEIGHT; y++) {
+            for (int x = 0; x < PATTERN_WIDTH; x++) {
+                int tableAddress = (x >> 7) << 12;
+                int tile = ((y >> 3) << 4) | ((x & 0x7F) >> 3);
+                int pixel = tilePixel(tableAddress, tile, x & 7, y & 7);
+                row[x] = pixel == 0 ? colors[0] : colors[palette | pixel];
+            }
+            image.setRGB(0, y, PATTERN_WIDTH, 1, row, 0, PATTERN_WIDTH);
+        }
+
+        return image;
+    }
+
+    // 8x8 grid of 16x16 cells, one per OAM entry, transparent where the sprite is
+    private BufferedImage renderSprites() {
+        BufferedImage image = new BufferedImage(SPRITE_WIDTH, SPRITE_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        boolean tallSprites = (snapshot.controlRegister & 0x20) != 0;
+        int spriteTable = (snapshot.controlRegister & 0x08) != 0 ? 0x1000 : 0x0000;
+        int height = tallSprites ? 16 : 8;
+
+        for (int sprite = 0; sprite < 64; sprite++) {
+            int tile = snapshot.OAMData[(sprite << 2) + 1] & 0xFF;
+            int attributes = snapshot.OAMData[(sprite << 2) + 2] & 0xFF;
+            int palette = 0x10 | ((attributes & 0x03) << 2);
+            boolean flipHorizontal = (attributes & 0x40) != 0;
+            boolean flipVertical = (attributes & 0x80) != 0;
+
+            int tableAddress = spriteTable;
+            if (tallSprites) {
+                tableAddress = (tile & 1) << 12;
+                tile &= 0xFE;
+            }
+
+            int cellX = (sprite & 7) << 4;
+            int cellY = (sprite >> 3) << 4;
+            for (int y = 0; y < height; y++) {
+                int sourceY = flipVertical ? height - 1 - y : y;
+                int sourceTile = tile + (sourceY >> 3);
+                for (int x = 0; x < 8; x++) {
+                    int sourceX = flipHorizontal ? 7 - x : x;
+                    int pixel = tilePixel(tableAddress, sourceTile, sourceX, sourceY & 7);
+                    if (pixel != 0) {
+                        image.setRGB(cellX + 4 + x, cellY + (tallSprites ? 0 : 4) + y, colors[palette | pixel]);
+                    }
+                }
+            }
+        }
+
+        return image;
+    }
+
+    // Two rows of 16 swatches, background palettes on top and sprite palettes below
+    private BufferedImage renderPalettes() {
+        BufferedImage image = new BufferedImage(PALETTE_WIDTH, PALETTE_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < PALETTE_HEIGHT; y++) {
+            for (int x = 0; x < PALETTE_WIDTH; x++) {
+                image.setRGB(x, y, colors[((y >> 4) << 4) | (x >> 4)]);
+            }
+        }
+        return image;
+    }
+}
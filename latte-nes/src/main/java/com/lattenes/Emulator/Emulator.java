@@ -18,7 +18,30 @@
 
 package com.lattenes.Emulator;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+
+import com.lattenes.Core.DoubleFrameBuffer;
+import com.lattenes.Core.IFrameBuffer;
+import com.lattenes.Core.Memory;
+import com.lattenes.Core.NESPalette;
+import com.lattenes.Core.PixelFormat;
 import com.lattenes.Core.System;
+import com.lattenes.Core.TripleFrameBuffer;
+import com.lattenes.Debug.PPUDebugViewer;
+import com.lattenes.Recording.QueuePolicy;
+import com.lattenes.Recording.RecordingFormat;
+import com.lattenes.Recording.VideoRecorder;
+import com.lattenes.Video.FrameDeduplicator;
+import com.lattenes.Video.NTSCFilter;
 
 public class Emulator {
     private EmulatorVideo video;
@@ -27,6 +50,73 @@ public class Emulator {
     private EmulatorAudio audio;
     public boolean keepTicking = false;
 
+    // Audio/video sync. Audio-master waits for the sound card, video-master
+    // runs a frame per refresh and adjusts the audio rate by up to
+    // MAX_RATE_DEVIATION to keep audioTarget samples (two frames) queued.
+    private static final double MAX_RATE_DEVIATION = 0.005;
+    private int sampleRate = 44100;
+    private int audioTarget = 1468;
+    private SyncMode syncMode = SyncMode.AUDIO;
+    private double audioRateRatio = 1.0;
+
+    // Audio backend, when OpenAL can't be opened JavaSound is tried next
+    private AudioBackendType audioBackendType = AudioBackendType.OPENAL;
+    private int audioBufferCount = 8;
+    private Path audioFile = null;
+    private int frameSkip = 0;
+    private boolean pipelinedRendering = false;
+    private int[] paletteLUT = null;
+    private PPUDebugViewer debugViewer = null;
+    private PixelFormat pixelFormat = PixelFormat.RGBA8;
+    private long frameLimit = 0;
+
+    // When set, emulation runs on its own thread and hands frames to the
+    // GLFW thread through a triple buffer
+    private boolean threadedEmulation = false;
+    private TripleFrameBuffer presentedFrames = null;
+    private Thread emulationThread = null;
+    private volatile boolean emulationRunning = false;
+
+    // NTSC filtering happens between the PPU's front buffer and the texture
+    private NTSCFilter ntscFilter = null;
+    private int[] filteredPixels = null;
+    private ByteBuffer filteredFrame = null;
+    private IntBuffer filteredFrameInts = null;
+
+    // Identical frames are neither uploaded nor drawn
+    private FrameDeduplicator deduplicator = new FrameDeduplicator();
+    private boolean frameDedup = true;
+
+    private File recordingDirectory = null;
+    private RecordingFormat recordingFormat = RecordingFormat.Y4M;
+    private QueuePolicy recordingPolicy = QueuePolicy.DEGRADE;
+    private VideoRecorder recorder = null;
+    private int[] recordingLUT = null;
+
+    // Frame timing for the F3 overlay
+    private final PerformanceStats stats = new PerformanceStats();
+    private final EmulatorHUD hud = new EmulatorHUD();
+    private final ThreadMXBean threadTimer = ManagementFactory.getThreadMXBean();
+    private long lastFrameStart = 0;
+
+    // Frame delay: instead of emulating right after the last present and
+    // then waiting out the frame, wait first and emulate as close to the
+    // next present as possible, so the input read is fresher. The delay is
+    // either fixed or, when negative, derived from recent emulation times.
+    private static final long FRAME_PERIOD = (long) (1e9 / 60.0988);
+    private static final long FRAME_DELAY_MARGIN = 2_000_000;
+    private boolean frameDelay = false;
+    private long frameDelayNanos = -1;
+    private long lastPresentTime = 0;
+    private long lastUploadTime = 0;
+
+    // Run-ahead: after each real frame the game is run this many frames
+    // further and the last one is shown, hiding the game's own input lag
+    private int runAheadFrames = 0;
+    private long realFrameNanos = 0;
+    private long runAheadNanos = 0;
+    private long runAheadCount = 0;
+
     public Emulator() {
         video = new EmulatorVideo();
     }
@@ -44,45 +134,441 @@ public class Emulator {
         EmulatorInput.initKeys();
         EmulatorInput.attachMMU(NES.getMemory());
 
-        audio = new EmulatorAudio(44100);
+        audio = new EmulatorAudio(createAudioBackend(audioBackendType), sampleRate, audioBufferCount);
+        if (!audio.isOpen() && audioBackendType == AudioBackendType.OPENAL) {
+            audioBackendType = AudioBackendType.JAVASOUND;
+            audio = new EmulatorAudio(createAudioBackend(AudioBackendType.JAVASOUND), sampleRate, audioBufferCount);
+        }
         NES.attachEmuAudioObject(audio);
+        NES.setAudioSampleRate(sampleRate);
         NES.attachEmulatorObject(this);
+        if (runAheadFrames > 0 && (frameSkip > 0 || pipelinedRendering)) {
+            // Run-ahead decides which frames are drawn itself, and the
+            // pipeline can't rewind with the snapshot
+            java.lang.System.out.println("Frame skip and pipelined rendering are off with run-ahead");
+            frameSkip = 0;
+            pipelinedRendering = false;
+        }
+        NES.setFrameSkip(frameSkip);
+        NES.setPipelinedRendering(pipelinedRendering);
+        if (paletteLUT != null) {
+            NES.setPaletteLUT(paletteLUT);
+        }
+        if (recordingDirectory != null) {
+            try {
+                recorder = new VideoRecorder(recordingDirectory, "recording", recordingFormat,
+                                             recordingPolicy, 64, sampleRate);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            recordingLUT = paletteLUT != null ? paletteLUT : NESPalette.createDefault();
+            audio.setListener(recorder::addAudio);
+        }
+
+        if (threadedEmulation) {
+            presentedFrames = new TripleFrameBuffer(pixelFormat);
+            NES.setFrameBuffer(presentedFrames);
+        } else if (pixelFormat != PixelFormat.RGBA8) {
+            NES.setFrameBuffer(new DoubleFrameBuffer(pixelFormat));
+        }
 
         return true;
     }
 
+    public boolean loadPalette(String path) {
+        try {
+            paletteLUT = NESPalette.loadPalFile(path);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        if (NES != null) {
+            NES.setPaletteLUT(paletteLUT);
+        }
+        video.updatePalette(paletteLUT);
+        return true;
+    }
+
+    // Indexed frames are colored by the fragment shader instead of the PPU
+    public void setIndexedOutput(boolean enabled) {
+        pixelFormat = enabled ? PixelFormat.INDEXED : PixelFormat.RGBA8;
+    }
+
+    public void setPixelBufferCount(int count) {
+        video.setPixelBufferCount(count);
+    }
+
+    // Runs with a hidden window and no v-sync, stopping after the given
+    // number of frames (0 runs until the window is closed)
+    public void setOffscreen(boolean offscreen, long frames) {
+        video.setOffscreen(offscreen);
+        frameLimit = frames;
+    }
+
+    // The filter needs palette indices, so the PPU is switched to indexed
+    // output; parallel splits the scanlines over the common ForkJoinPool
+    public void setNTSCFilter(boolean enabled, boolean parallel) {
+        if (!enabled) {
+            ntscFilter = null;
+            return;
+        }
+
+        pixelFormat = PixelFormat.INDEXED;
+        ntscFilter = new NTSCFilter(parallel ? ForkJoinPool.commonPool() : null);
+        filteredPixels = new int[NTSCFilter.OUTPUT_WIDTH * NTSCFilter.OUTPUT_HEIGHT];
+        filteredFrame = ByteBuffer.allocateDirect(filteredPixels.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        filteredFrameInts = filteredFrame.asIntBuffer();
+    }
+
+    // Records the session into directory, set before loadAndInit
+    public void setRecording(File directory, RecordingFormat format, QueuePolicy policy) {
+        recordingDirectory = directory;
+        recordingFormat = format;
+        recordingPolicy = policy;
+    }
+
+    public void setFrameDedup(boolean enabled) {
+        frameDedup = enabled;
+    }
+
+    public FrameDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    public void setThreadedEmulation(boolean enabled) {
+        threadedEmulation = enabled;
+    }
+
+    public void setPipelinedRendering(boolean enabled) {
+        pipelinedRendering = enabled;
+        if (NES != null) {
+            NES.setPipelinedRendering(enabled);
+        }
+    }
+
+    public void setFrameSkip(int ratio) {
+        frameSkip = ratio;
+        if (NES != null) {
+            NES.setFrameSkip(ratio);
+        }
+    }
+
+    // Output sample rate, set before loadAndInit
+    public void setSampleRate(int rate) {
+        sampleRate = rate;
+        audioTarget = (int) (rate * 2 / 60.0988);
+    }
+
+    // Set before loadAndInit, file is only used by the FILE backend
+    public void setAudioBackend(AudioBackendType type, Path file) {
+        audioBackendType = type;
+        audioFile = file;
+    }
+
+    // Number of CHUNK_SIZE buffers the device holds
+    public void setAudioBufferCount(int count) {
+        audioBufferCount = Math.max(2, count);
+    }
+
+    private IAudioBackend createAudioBackend(AudioBackendType type) {
+        switch (type) {
+            case OPENAL:
+                return new OpenALAudioBackend();
+            case JAVASOUND:
+                return new JavaSoundAudioBackend();
+            case FILE:
+                return new FileAudioBackend(audioFile != null ? audioFile : Path.of("audio.wav"));
+            default:
+                return new NullAudioBackend();
+        }
+    }
+
+    public void setSyncMode(SyncMode mode) {
+        syncMode = mode;
+    }
+
+    // Fill of 0.5 is on target, the ratio moves linearly to the limits at
+    // an empty or a doubled queue
+    private void updateRateControl() {
+        if (syncMode != SyncMode.VIDEO || !audio.isRealTime()) {
+            return;
+        }
+
+        double fill = Math.min(1.0, audio.getQueuedSamples() / (2.0 * audioTarget));
+        audioRateRatio = 1.0 + MAX_RATE_DEVIATION * (1.0 - 2.0 * fill);
+        NES.setAudioRateRatio(audioRateRatio);
+    }
+
+    // Holds the loop back until it's time for the next frame
+    private void paceFrame(boolean vsynced) {
+        if (syncMode == SyncMode.AUDIO && audio.isRealTime()) {
+            while (!keepTicking && !audio.bufHasLT(audioTarget)) {
+                LockSupport.parkNanos(500_000);
+            }
+        } else if (!vsynced) {
+            capFrameRate(60.0988);
+        }
+    }
+
     private void capFrameRate(double fps) {
         double expectedFrametime = 1e9 / fps;
         long expectedFinishTime = startFrame + (long) expectedFrametime;
         while (java.lang.System.nanoTime() < expectedFinishTime) {}
     }
 
+    // milliseconds < 0 picks the delay automatically
+    public void setFrameDelay(boolean enabled, double milliseconds) {
+        frameDelay = enabled;
+        frameDelayNanos = milliseconds < 0 ? -1 : (long) (milliseconds * 1e6);
+    }
+
+    private static void sleepUntil(long time) {
+        long remaining;
+        while ((remaining = time - java.lang.System.nanoTime()) > 0) {
+            // Sleeps overshoot, spin through the last millisecond
+            if (remaining > 1_500_000) {
+                LockSupport.parkNanos(remaining - 1_000_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void waitForFrameDelay() {
+        long delay = frameDelayNanos;
+        if (delay < 0) {
+            long predicted = (long) (stats.maxEmulationTime(30) * 1e6) + lastUploadTime;
+            delay = FRAME_PERIOD - predicted - FRAME_DELAY_MARGIN;
+        }
+        delay = Math.max(0, Math.min(delay, FRAME_PERIOD - FRAME_DELAY_MARGIN));
+
+        sleepUntil(lastPresentTime + delay);
+
+        // Pick up key presses that came in while sleeping
+        video.pollEvents();
+    }
+
+    public void setRunAhead(int frames) {
+        runAheadFrames = Math.max(0, frames);
+    }
+
+    public void setHUDVisible(boolean visible) {
+        EmulatorInput.showHUD = visible;
+    }
+
+    // Returns true if the overlay is up, the window is then redrawn every
+    // frame even if the game's frame didn't change
+    private boolean updateHUD() {
+        boolean visible = EmulatorInput.showHUD;
+        video.setOverlayVisible(visible);
+        if (visible) {
+            hud.render(stats);
+            video.updateOverlay(hud.getPixels());
+        }
+        return visible;
+    }
+
+    private void checkDebugRequest() {
+        Memory memory = NES.getMemory();
+        if (!memory.ppuDebugFlag) {
+            return;
+        }
+
+        memory.ppuDebugFlag = false;
+        if (debugViewer == null) {
+            debugViewer = new PPUDebugViewer();
+            NES.setFrameListener(debugViewer);
+        }
+        debugViewer.requestDump(new File("ppu-debug"));
+    }
+
+    private void emulateFrame() {
+        startFrame = java.lang.System.nanoTime();
+        long cpuStart = threadTimer.isCurrentThreadCpuTimeSupported() ? threadTimer.getCurrentThreadCpuTime() : 0;
+
+        // Audio-master catches up without waiting when the queue runs low
+        keepTicking = syncMode == SyncMode.AUDIO && audio.isRealTime() && audio.bufHasLT(audioTarget / 2);
+
+        do {
+            NES.tick();
+        } while (!NES.frameReady());
+
+        if (runAheadFrames > 0) {
+            long runAheadStart = java.lang.System.nanoTime();
+            NES.runAhead(runAheadFrames);
+            runAheadNanos += java.lang.System.nanoTime() - runAheadStart;
+            realFrameNanos += runAheadStart - startFrame;
+            runAheadCount++;
+        }
+
+        audio.flushSamples();
+        updateRateControl();
+
+        long cpuTime = threadTimer.isCurrentThreadCpuTimeSupported()
+                     ? threadTimer.getCurrentThreadCpuTime() - cpuStart : 0;
+        long frameInterval = lastFrameStart != 0 ? startFrame - lastFrameStart : 0;
+        stats.record(frameInterval, java.lang.System.nanoTime() - startFrame, cpuTime, audio.getBufferFill());
+        lastFrameStart = startFrame;
+
+        if (recorder != null) {
+            recorder.recordFrame(NES.getFrameBuffer().getFinishedBuffer(), pixelFormat, recordingLUT);
+        }
+    }
+
+    // Counts emulated frames, the GL thread's passes in threaded mode
+    // include ones where it only waited for the next frame
+    private boolean frameLimitReached() {
+        return frameLimit != 0 && stats.getFrameCount() >= frameLimit;
+    }
+
+    private void emulationLoop() {
+        while (emulationRunning && !frameLimitReached()) {
+            emulateFrame();
+            NES.clearFrameReady();
+            paceFrame(false);
+        }
+    }
+
+    // Returns false if the frame was the same as the last one and wasn't uploaded
+    private boolean presentFrame(ByteBuffer frame, int burstPhase) {
+        int frameBytes = IFrameBuffer.WIDTH * IFrameBuffer.HEIGHT * pixelFormat.bytesPerPixel;
+        if (frameDedup && deduplicator.isRepeat(frame, frameBytes)) {
+            return false;
+        }
+
+        if (ntscFilter != null) {
+            ntscFilter.filter(frame, filteredPixels, burstPhase);
+            filteredFrameInts.clear();
+            filteredFrameInts.put(filteredPixels);
+            frame = filteredFrame;
+        }
+
+        video.updateTexture(frame);
+        return true;
+    }
+
     public void run() {
         video.init();
-        video.createTexture(NES.getScreen());
+        int[] lut = paletteLUT != null ? paletteLUT : NESPalette.createDefault();
+        if (ntscFilter != null) {
+            video.setTextureSize(NTSCFilter.OUTPUT_WIDTH, NTSCFilter.OUTPUT_HEIGHT);
+            video.createTexture(filteredFrame, PixelFormat.RGBA8, lut);
+        } else {
+            video.createTexture(NES.getFrameBuffer().getFrontBuffer(), pixelFormat, lut);
+        }
+        video.createOverlay(EmulatorHUD.WIDTH, EmulatorHUD.HEIGHT);
         keepTicking = false;
 
-        while (!video.shouldClose()) {
-            startFrame = java.lang.System.nanoTime();
+        if (threadedEmulation) {
+            emulationRunning = true;
+            emulationThread = new Thread(this::emulationLoop, "Emulation");
+            emulationThread.start();
+        }
 
-            keepTicking = audio.bufHasLT(1468);
+        while (!video.shouldClose() && !frameLimitReached()) {
+            if (threadedEmulation) {
+                // The GL thread only presents, at whatever rate v-sync allows
+                boolean changed = presentedFrames.presentLatest()
+                               && presentFrame(presentedFrames.getFrontBuffer(), presentedFrames.getFrontBurstPhase());
+                checkDebugRequest();
+                boolean hudVisible = updateHUD();
+                if (changed || hudVisible || video.redrawRequested()) {
+                    video.draw();
+                } else {
+                    video.waitEvents(0.001);
+                }
+                continue;
+            }
 
-            do {
-                NES.tick();
-            } while (!NES.frameReady());
+            boolean delayed = frameDelay && !keepTicking;
+            if (delayed) {
+                waitForFrameDelay();
+            }
 
-            audio.flushSamples(!keepTicking);
+            emulateFrame();
 
-            video.updateTexture(NES.getScreen());
+            long uploadStart = java.lang.System.nanoTime();
+            boolean changed = !NES.lastFrameSkipped()
+                              && presentFrame(NES.getFrameBuffer().getFrontBuffer(),
+                                              NES.getFrameBuffer().getFrontBurstPhase());
+            lastUploadTime = java.lang.System.nanoTime() - uploadStart;
             NES.clearFrameReady();
-            video.draw();
-            if (!keepTicking) {
-                capFrameRate(60.0988);
+            checkDebugRequest();
+            boolean hudVisible = updateHUD();
+
+            // When the swap won't wait for v-sync the frame is held back
+            // until its slot
+            boolean redraw = changed || hudVisible || video.redrawRequested();
+            if (delayed && (!redraw || !video.isVSyncEnabled())) {
+                sleepUntil(lastPresentTime + FRAME_PERIOD);
             }
+
+            if (redraw) {
+                video.draw();
+            } else {
+                video.pollEvents();
+            }
+
+            if (frameDelay) {
+                lastPresentTime = java.lang.System.nanoTime();
+            } else {
+                paceFrame(redraw && video.isVSyncEnabled());
+            }
+        }
+
+        if (emulationThread != null) {
+            emulationRunning = false;
+            try {
+                emulationThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (recorder != null) {
+            recorder.close();
+            java.lang.System.out.println("Frames recorded: " + recorder.getWrittenFrameCount()
+                                       + ", repeated: " + recorder.getRepeatedFrameCount()
+                                       + ", dropped: " + recorder.getDroppedFrameCount()
+                                       + ", degraded: " + recorder.getDegradedFrameCount());
         }
 
+        if (frameDedup) {
+            java.lang.System.out.println("Frames uploaded: " + deduplicator.getUniqueFrameCount()
+                                       + ", repeated: " + deduplicator.getRepeatedFrameCount());
+        }
+
+        if (frameSkip > 0) {
+            java.lang.System.out.println("Frames rendered: " + NES.getRenderedFrameCount()
+                                       + ", skipped: " + NES.getSkippedFrameCount());
+        }
+
+        if (runAheadCount > 0) {
+            // Frames per second the emulation alone could reach
+            double plain = runAheadCount / (realFrameNanos / 1e9);
+            double withRunAhead = runAheadCount / ((realFrameNanos + runAheadNanos) / 1e9);
+            java.lang.System.out.printf("Run-ahead %d: %.0f fps without, %.0f fps with (%.0f%% overhead)%n",
+                                        runAheadFrames, plain, withRunAhead,
+                                        100.0 * runAheadNanos / realFrameNanos);
+        }
+
+        if (debugViewer != null) {
+            NES.setFrameListener(null);
+            debugViewer.shutdown();
+        }
+        NES.setPipelinedRendering(false);
         NES.endLog();
         audio.destroy();
+        java.lang.System.out.println("Audio underruns: " + audio.getUnderrunCount()
+                                   + ", samples dropped: " + audio.getOverrunCount());
+        if (audio.isRealTime()) {
+            java.lang.System.out.printf("Audio latency (%s, %d buffers, %.1f ms in the device): "
+                                        + "%.1f ms average, %.1f ms worst%n",
+                                        audioBackendType, audioBufferCount, audio.getDeviceBufferMs(),
+                                        audio.getAverageLatencyMs(), audio.getMaxLatencyMs());
+        }
         video.cleanup();
     }
 }
@@ -18,71 +18,198 @@
 
 package com.lattenes.Emulator;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.locks.LockSupport;
 
-public class EmulatorAudio {
-    private SourceDataLine line;
-    private byte[] soundBuf;
+import com.lattenes.Util.ShortRingBuffer;
+
+// The emulation thread only puts samples in a ring buffer, a separate
+// thread drains the ring into the backend and is the only one that can
+// block on it. A full ring drops samples (an overrun), an empty ring while
+// the device has run dry is an underrun.
+public class EmulatorAudio implements IAudioOutput {
+    private static final int RING_SIZE = 8192;
+    // Samples per backend buffer
+    public static final int CHUNK_SIZE = 256;
+
+    private IAudioBackend backend;
+    private final int sampleRate;
+    private short[] soundBuf;
+    private byte[] pcmBuf;
     private int bufPos;
     private float outVol;
+    private IAudioListener listener = null;
+
+    private final ShortRingBuffer ring = new ShortRingBuffer(RING_SIZE);
+    private Thread outputThread = null;
+    private volatile boolean running = false;
+    private volatile long underruns = 0;
+    private long overruns = 0;
+
+    // Samples queued ahead of the speaker, sampled at every flush
+    private long latencySum = 0;
+    private long latencyCount = 0;
+    private int latencyMax = 0;
 
-    public EmulatorAudio(int sampleRate) {
+    public EmulatorAudio(IAudioBackend backend, int sampleRate, int bufferCount) {
+        this.sampleRate = sampleRate;
         outVol = 1.0f;
-        final int samplesPerFrame = (int) Math.ceil(sampleRate / 60.0988);
-        soundBuf = new byte[2 * 8192];
-        try {
-            AudioFormat AF = new AudioFormat(sampleRate, 16, 1, true, false);
-            line = AudioSystem.getSourceDataLine(AF);
-            line.open(AF, 2 * 8192);
-            line.start();
-        } catch (Exception e) {
-            e.printStackTrace();
+        soundBuf = new short[8192];
+        pcmBuf = new byte[2 * 8192];
+        if (!backend.open(sampleRate, bufferCount, CHUNK_SIZE)) {
+            this.backend = null;
+            return;
         }
+        this.backend = backend;
+
+        running = true;
+        outputThread = new Thread(this::outputLoop, "Audio");
+        outputThread.setDaemon(true);
+        outputThread.start();
     }
 
-    public void flushSamples(boolean wait) {
-        if (line.available() < bufPos) {
-            if (wait) {
-                line.write(soundBuf, 0, bufPos);
+    public void setListener(IAudioListener listener) {
+        this.listener = listener;
+    }
+
+    private void outputLoop() {
+        short[] chunk = new short[CHUNK_SIZE];
+        boolean playing = false;
+
+        while (running) {
+            int count = ring.read(chunk, 0, chunk.length);
+            if (count == 0) {
+                if (playing && backend.isRealTime() && backend.getQueuedSamples() == 0) {
+                    underruns++;
+                    playing = false;
+                }
+                LockSupport.parkNanos(500_000);
+                continue;
+            }
+
+            playing = true;
+            // Blocks this thread only, until the device has room
+            backend.write(chunk, count);
+        }
+
+        // Whatever is left when closing, file backends want all of it
+        int count;
+        while ((count = ring.read(chunk, 0, chunk.length)) > 0) {
+            backend.write(chunk, count);
+        }
+    }
+
+    // Hands this frame's samples to the output thread, never blocks
+    @Override
+    public void flushSamples() {
+        if (listener != null) {
+            for (int i = 0; i < bufPos; i++) {
+                pcmBuf[2 * i] = (byte) soundBuf[i];
+                pcmBuf[2 * i + 1] = (byte) (soundBuf[i] >> 8);
+            }
+            listener.samplesFlushed(pcmBuf, bufPos * 2);
+        }
+
+        if (backend != null) {
+            int written = ring.write(soundBuf, 0, bufPos);
+            overruns += bufPos - written;
+
+            if (backend.isRealTime()) {
+                int queued = getQueuedSamples();
+                latencySum += queued;
+                latencyCount++;
+                latencyMax = Math.max(latencyMax, queued);
             }
-        } else {
-            line.write(soundBuf, 0, bufPos);
         }
-        //if (line.available() >= bufPos) {
-        //    line.write(soundBuf, 0, bufPos);
-        //} else {
-        //    line.flush();
-        //}
         bufPos = 0;
     }
 
+    @Override
     public void outputSample(int sample) {
         sample *= outVol;
         if (sample < -32768) sample = -32768;
         if (sample > 32767) sample = 32767;
 
-        soundBuf[bufPos] = (byte) (sample & 0xFF);
-        soundBuf[bufPos + 1] = (byte) ((sample >> 8) & 0xFF);
-        bufPos += 2;
+        if (bufPos < soundBuf.length) {
+            soundBuf[bufPos++] = (short) sample;
+        }
     }
 
     public void pause() {
-        line.flush();
-        line.stop();
+        if (backend != null) {
+            backend.pause();
+        }
     }
 
     public void resume() {
-        line.start();
+        if (backend != null) {
+            backend.resume();
+        }
     }
 
     public void destroy() {
-        line.stop();
-        line.close();
+        if (backend == null) {
+            return;
+        }
+
+        running = false;
+        try {
+            outputThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        backend.close();
+    }
+
+    // Samples waiting in the ring and in the device's buffers
+    public int getQueuedSamples() {
+        if (backend == null) {
+            return 0;
+        }
+        return ring.size() + backend.getQueuedSamples();
+    }
+
+    // How full the ring and the device's buffers are together, 0 to 1
+    public float getBufferFill() {
+        if (backend == null) {
+            return 0;
+        }
+        return (float) getQueuedSamples() / (ring.capacity() + backend.getCapacity());
+    }
+
+    public boolean isOpen() {
+        return backend != null;
+    }
+
+    // Only a backend that plays at the sample rate can pace emulation
+    public boolean isRealTime() {
+        return backend != null && backend.isRealTime();
     }
 
     public boolean bufHasLT(int samples) {
-        return (line.getBufferSize() - line.available()) <= samples;
+        return getQueuedSamples() <= samples;
+    }
+
+    // Times the sound card ran dry
+    public long getUnderrunCount() {
+        return underruns;
+    }
+
+    // Average and worst time from a flush to the speaker, in milliseconds
+    public double getAverageLatencyMs() {
+        return latencyCount == 0 ? 0 : 1000.0 * latencySum / latencyCount / sampleRate;
+    }
+
+    public double getMaxLatencyMs() {
+        return 1000.0 * latencyMax / sampleRate;
+    }
+
+    // Time the device's own buffers hold, in milliseconds
+    public double getDeviceBufferMs() {
+        return backend == null ? 0 : 1000.0 * backend.getCapacity() / sampleRate;
+    }
+
+    // Samples dropped because the ring was full
+    public long getOverrunCount() {
+        return overruns;
     }
-}
\ No newline at end of file
+}
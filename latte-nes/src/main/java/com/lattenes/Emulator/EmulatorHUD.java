@@ -0,0 +1,127 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Emulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+// Draws the performance overlay into a small RGBA image: emulation speed,
+// frame time, CPU time per frame and audio buffer fill as text, with a
+// graph of the recent frame times below. EmulatorVideo shows the image on
+// its own quad on top of the game.
+public class EmulatorHUD {
+    public static final int WIDTH = 160;
+    public static final int HEIGHT = 72;
+
+    private static final double NES_FRAME_RATE = 60.0988;
+    private static final float TARGET_FRAME_TIME = (float) (1000.0 / NES_FRAME_RATE);
+    private static final int GRAPH_HEIGHT = 40;
+
+    private static final int BACKGROUND = 0xA0000000;
+    private static final int TEXT = 0xFFFFFFFF;
+    private static final int GOOD = 0xFF40C040;
+    private static final int SLOW = 0xFFE04020;
+    private static final int CPU = 0xFFE0A040;
+    private static final int TARGET_LINE = 0xFF808080;
+
+    // 3x5 glyphs, one bit per pixel, top row in the high bits
+    private static final String GLYPH_CHARS = "0123456789.%SPDFTCUMA ";
+    private static final int[] GLYPHS = {
+        0b111101101101111, 0b010110010010111, 0b111001111100111, 0b111001111001111,
+        0b101101111001001, 0b111100111001111, 0b111100111101111, 0b111001001001001,
+        0b111101111101111, 0b111101111001111, 0b000000000000010, 0b101001010100101,
+        0b111100111001111, 0b111101111100100, 0b110101101101110, 0b111100110100100,
+        0b111010010010010, 0b111100100100111, 0b101101101101111, 0b101111111101101,
+        0b010101111101101, 0b000000000000000
+    };
+
+    private final int[] canvas = new int[WIDTH * HEIGHT];
+    private final ByteBuffer pixels;
+    private final IntBuffer pixelInts;
+
+    public EmulatorHUD() {
+        pixels = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.LITTLE_ENDIAN);
+        pixelInts = pixels.asIntBuffer();
+    }
+
+    public ByteBuffer getPixels() {
+        return pixels;
+    }
+
+    // Colors above are written as 0xAARRGGBB for readability, the texture
+    // wants red in the low byte
+    private static int toRGBA(int argb) {
+        return (argb & 0xFF00FF00) | ((argb & 0xFF) << 16) | ((argb >> 16) & 0xFF);
+    }
+
+    private void fill(int x, int y, int width, int height, int argb) {
+        int color = toRGBA(argb);
+        for (int row = Math.max(0, y); row < Math.min(HEIGHT, y + height); row++) {
+            for (int column = Math.max(0, x); column < Math.min(WIDTH, x + width); column++) {
+                canvas[row * WIDTH + column] = color;
+            }
+        }
+    }
+
+    private void drawText(int x, int y, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            int glyph = GLYPH_CHARS.indexOf(text.charAt(i));
+            int bits = glyph >= 0 ? GLYPHS[glyph] : 0;
+            for (int row = 0; row < 5; row++) {
+                for (int column = 0; column < 3; column++) {
+                    if ((bits & (1 << (14 - row * 3 - column))) != 0) {
+                        fill(x + i * 4 + column, y + row, 1, 1, TEXT);
+                    }
+                }
+            }
+        }
+    }
+
+    public void render(PerformanceStats stats) {
+        fill(0, 0, WIDTH, HEIGHT, BACKGROUND);
+
+        float frameTime = stats.averageFrameTime(30);
+        float speed = frameTime > 0.0f ? (float) (100.0 * 1000.0 / frameTime / NES_FRAME_RATE) : 0.0f;
+        float cpuTime = stats.averageCPUTime(30);
+        float fill = stats.available() > 0 ? stats.getAudioFill(0) : 0.0f;
+
+        drawText(2, 2, String.format("SPD %.1f%%", speed));
+        drawText(2, 9, String.format("FT %.1fMS", frameTime));
+        drawText(2, 16, String.format("CPU %.1fMS", cpuTime));
+        drawText(2, 23, String.format("AUD %d%%", Math.round(fill * 100.0f)));
+
+        // Newest frame on the right, full height is two frame intervals
+        int graphTop = HEIGHT - GRAPH_HEIGHT;
+        float scale = GRAPH_HEIGHT / (2.0f * TARGET_FRAME_TIME);
+        for (int age = 0; age < stats.available() && age < WIDTH; age++) {
+            int x = WIDTH - 1 - age;
+            float time = stats.getFrameTime(age);
+            int height = Math.min(GRAPH_HEIGHT, Math.round(time * scale));
+            fill(x, HEIGHT - height, 1, height, time > TARGET_FRAME_TIME * 1.05f ? SLOW : GOOD);
+
+            int cpuHeight = Math.min(GRAPH_HEIGHT, Math.round(stats.getCPUTime(age) * scale));
+            fill(x, HEIGHT - cpuHeight, 1, cpuHeight, CPU);
+        }
+        fill(0, graphTop + GRAPH_HEIGHT / 2, WIDTH, 1, TARGET_LINE);
+
+        pixelInts.clear();
+        pixelInts.put(canvas);
+    }
+}
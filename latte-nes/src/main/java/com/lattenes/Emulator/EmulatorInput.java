@@ -29,6 +29,7 @@ public class EmulatorInput {
     static int[] keys = new int[GLFW_KEY_LAST];
     static Tuple<Integer, Integer>[] mappedKeys;
     static Memory memory;
+    static volatile boolean showHUD = false;
 
     static void attachMMU(Memory memory) {
         EmulatorInput.memory = memory;
@@ -36,7 +37,7 @@ public class EmulatorInput {
 
     @SuppressWarnings("unchecked")
     static void createTupleArray() {
-        mappedKeys = (Tuple<Integer, Integer>[]) Array.newInstance(Tuple.class, 10);
+        mappedKeys = (Tuple<Integer, Integer>[]) Array.newInstance(Tuple.class, 11);
     }
 
     static void initKeys() {
@@ -50,10 +51,14 @@ public class EmulatorInput {
         mappedKeys[7] = new Tuple<Integer, Integer>(GLFW_KEY_RIGHT, 0x01);
         mappedKeys[8] = new Tuple<Integer, Integer>(GLFW_KEY_F1, 0x100);
         mappedKeys[9] = new Tuple<Integer, Integer>(GLFW_KEY_F2, 0x200);
+        mappedKeys[10] = new Tuple<Integer, Integer>(GLFW_KEY_F4, 0x400);
     }
 
     static void keyboardInputCallback (long window, int key, int scancode, int action, int mods) {
         keys[key] = action;
+        if (key == GLFW_KEY_F3 && action == GLFW_PRESS) {
+            showHUD = !showHUD;
+        }
         updateControllerState();
     }
 
@@ -69,12 +74,15 @@ public class EmulatorInput {
                         // Load state
                         java.lang.System.out.println("Loading state");
                         memory.loadStateFlag = true;
+                    } else if (key.second == 0x400) {
+                        // Dump PPU debug views
+                        memory.ppuDebugFlag = true;
                     }
                 } else {
-                    memory.controller1 |= key.second; 
+                    memory.controllerState.getAndUpdate(state -> state | key.second);
                 }
-            } else if (keys[key.first] == GLFW_RELEASE) {
-                memory.controller1 &= ~key.second;
+            } else if (keys[key.first] == GLFW_RELEASE && key.second < 0x100) {
+                memory.controllerState.getAndUpdate(state -> state & ~key.second);
             }
         }
     }
@@ -25,6 +25,8 @@ import org.lwjgl.system.*;
 
 import java.nio.*;
 
+import com.lattenes.Core.PixelFormat;
+
 import static org.lwjgl.glfw.Callbacks.*;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL33.*;
@@ -37,9 +39,7 @@ public class EmulatorVideo {
 
     com.lattenes.Core.System system;
 
-    // Shader programs
-    private int vertShaderProgram;
-    private int fragShaderProgram;
+    // Shader program
     private int shaderProgram;
 
     // IntBuffers to hold the vertex and element objects
@@ -48,17 +48,39 @@ public class EmulatorVideo {
     private IntBuffer vertexArrayObj;
     private IntBuffer vertexBufferObj;
     private IntBuffer elementBufferObj;
-
-    // This actually holds the texture data
-    private FloatBuffer pixels;
+    private IntBuffer paletteTextureObj;
+
+    // Frames are streamed through a ring of pixel buffer objects so that
+    // glTexSubImage2D never has to wait on a client-side copy
+    private IntBuffer pixelBufferObjs;
+    private int pixelBufferCount = 2;
+    private int pixelBufferIndex = 0;
+    private int frameBytes;
+
+    private PixelFormat format = PixelFormat.RGBA8;
+
+    // Keeps the window hidden and v-sync off, i.e. for software GL drivers
+    private boolean offscreen = false;
+
+    // Performance overlay, drawn on its own quad with its own program so
+    // it works with every frame format
+    private int overlayProgram;
+    private IntBuffer overlayTextureObj;
+    private IntBuffer overlayVertexArrayObj;
+    private IntBuffer overlayVertexBufferObj;
+    private IntBuffer overlayElementBufferObj;
+    private int overlayWidth;
+    private int overlayHeight;
+    private boolean overlayVisible = false;
 
     // Does nothing right now, but could be useful later
     private int windowWidth = 800;
     private int windowHeight = 750;
 
-    // Size of the texture we will generate from OpenGL
-    private final int NES_WIDTH = 256;
-    private final int NES_HEIGHT = 240;
+    // Size of the texture we will generate from OpenGL, the size of
+    // the PPU frame unless a filter changes the output size
+    private int textureWidth = 256;
+    private int textureHeight = 240;
 
     // This would have its own file, but we're not ever
     // changing the shader (for now)
@@ -81,12 +103,33 @@ public class EmulatorVideo {
                     + "   FragColor = texture(ourTexture, TexCoord);\n"
                     + "}\0"; 
 
-    // This is the quad we will draw the texture on
+    // Indexed frames hold palette table indices, the color lookup is done here
+    private final String indexedFragShader = "#version 330 core\n"
+                    + "out vec4 FragColor;\n"
+                    + "in vec2 TexCoord;\n"
+                    + "uniform usampler2D ourTexture;\n"
+                    + "uniform sampler2D paletteTexture;\n"
+                    + "void main()\n"
+                    + "{\n"
+                    + "   uint index = texture(ourTexture, TexCoord).r;\n"
+                    + "   FragColor = texelFetch(paletteTexture, ivec2(int(index), 0), 0);\n"
+                    + "}\0";
+
+    // This is the quad we will draw the texture on, frames
+    // are stored top row first so the texture is flipped
     private final float QUAD_VERTEX_DATA[] = {
-        1.0f,  1.0f, 0.0f, 1.0f, 1.0f,
-        1.0f, -1.0f, 0.0f, 1.0f, 0.0f,
-       -1.0f, -1.0f, 0.0f, 0.0f, 0.0f,
-       -1.0f,  1.0f, 0.0f, 0.0f, 1.0f
+        1.0f,  1.0f, 0.0f, 1.0f, 0.0f,
+        1.0f, -1.0f, 0.0f, 1.0f, 1.0f,
+       -1.0f, -1.0f, 0.0f, 0.0f, 1.0f,
+       -1.0f,  1.0f, 0.0f, 0.0f, 0.0f
+    };
+
+    // Top left corner of the window, a bit under half its width
+    private final float OVERLAY_VERTEX_DATA[] = {
+       -0.15f,  0.98f, 0.0f, 1.0f, 0.0f,
+       -0.15f,  0.35f, 0.0f, 1.0f, 1.0f,
+       -0.98f,  0.35f, 0.0f, 0.0f, 1.0f,
+       -0.98f,  0.98f, 0.0f, 0.0f, 0.0f
     };
 
     // This is the indices we will use to draw the quad
@@ -95,13 +138,35 @@ public class EmulatorVideo {
         1, 2, 3,
     };
 
+    // Set when the window contents have to be drawn again even if the
+    // frame hasn't changed
+    private boolean redrawRequested = true;
+
     private void windowResizeCallback(long window, int width, int height) {
         glViewport(0, 0, width, height);
+        redrawRequested = true;
 
         windowWidth = width;
         windowHeight = height;
     }
 
+    public void setOffscreen(boolean offscreen) {
+        this.offscreen = offscreen;
+    }
+
+    public boolean isVSyncEnabled() {
+        return !offscreen;
+    }
+
+    public void setTextureSize(int width, int height) {
+        textureWidth = width;
+        textureHeight = height;
+    }
+
+    public void setPixelBufferCount(int count) {
+        pixelBufferCount = Math.max(1, Math.min(3, count));
+    }
+
     public double getTime() {
         return glfwGetTime();
     }
@@ -149,37 +214,25 @@ public class EmulatorVideo {
         glfwMakeContextCurrent(window);
     
         // Enable v-sync
-        glfwSwapInterval(1);
+        glfwSwapInterval(offscreen ? 0 : 1);
 
         // Make the window visible
-        glfwShowWindow(window);
+        if (!offscreen) {
+            glfwShowWindow(window);
+        }
 
         // Initialize OpenGL
         GL.createCapabilities();
 
         // Set the clear color
         glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
-
-        // Create the pixel buffer
-        pixels = BufferUtils.createFloatBuffer(NES_WIDTH * NES_HEIGHT * 4);
     }
 
-    public void createTexture(float[] framebuffer) {
-        vertShaderProgram = glCreateShader(GL_VERTEX_SHADER);
-        glShaderSource(vertShaderProgram, vertexShader);
-        glCompileShader(vertShaderProgram);
+    public void createTexture(ByteBuffer frame, PixelFormat format, int[] paletteLUT) {
+        this.format = format;
+        this.frameBytes = textureWidth * textureHeight * format.bytesPerPixel;
 
-        fragShaderProgram = glCreateShader(GL_FRAGMENT_SHADER);
-        glShaderSource(fragShaderProgram, fragShader);
-        glCompileShader(fragShaderProgram);
-
-        shaderProgram = glCreateProgram();
-        glAttachShader(shaderProgram, vertShaderProgram);
-        glAttachShader(shaderProgram, fragShaderProgram);
-        glLinkProgram(shaderProgram);
-
-        glDeleteShader(vertShaderProgram);
-        glDeleteShader(fragShaderProgram);
+        shaderProgram = compileProgram(format == PixelFormat.INDEXED ? indexedFragShader : fragShader);
 
         vertexArrayObj = BufferUtils.createIntBuffer(1);
         vertexBufferObj = BufferUtils.createIntBuffer(1);
@@ -203,21 +256,125 @@ public class EmulatorVideo {
         glVertexAttribPointer(1, 2, GL_FLOAT, false, 5 * (Float.SIZE / 8), 3 * (Float.SIZE / 8));
         glEnableVertexAttribArray(1);
 
-        pixels.put(framebuffer);
-        pixels.flip();
-
         textureObj = BufferUtils.createIntBuffer(1);
         glGenTextures(textureObj);
         glBindTexture(GL_TEXTURE_2D, textureObj.get(0));
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, NES_WIDTH, NES_HEIGHT, 0, GL_RGBA, GL_FLOAT, pixels);
-    
+        if (format == PixelFormat.INDEXED) {
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_R16UI, textureWidth, textureHeight, 0, GL_RED_INTEGER, GL_UNSIGNED_SHORT, frame);
+        } else {
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, textureWidth, textureHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE, frame);
+        }
+
+        pixelBufferObjs = BufferUtils.createIntBuffer(pixelBufferCount);
+        glGenBuffers(pixelBufferObjs);
+        for (int i = 0; i < pixelBufferCount; i++) {
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBufferObjs.get(i));
+            glBufferData(GL_PIXEL_UNPACK_BUFFER, frameBytes, GL_STREAM_DRAW);
+        }
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+
         glUseProgram(shaderProgram);
         glUniform1i(glGetUniformLocation(shaderProgram, "ourTexture"), 0);
 
+        if (format == PixelFormat.INDEXED) {
+            // The palette table is a 512x1 texture on unit 1, read with texelFetch
+            paletteTextureObj = BufferUtils.createIntBuffer(1);
+            glGenTextures(paletteTextureObj);
+            glActiveTexture(GL_TEXTURE1);
+            glBindTexture(GL_TEXTURE_2D, paletteTextureObj.get(0));
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, paletteLUT.length, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, paletteLUT);
+            glActiveTexture(GL_TEXTURE0);
+            glUniform1i(glGetUniformLocation(shaderProgram, "paletteTexture"), 1);
+        }
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+    }
+
+    private int compileProgram(String fragmentSource) {
+        int vertex = glCreateShader(GL_VERTEX_SHADER);
+        glShaderSource(vertex, vertexShader);
+        glCompileShader(vertex);
+
+        int fragment = glCreateShader(GL_FRAGMENT_SHADER);
+        glShaderSource(fragment, fragmentSource);
+        glCompileShader(fragment);
+
+        int program = glCreateProgram();
+        glAttachShader(program, vertex);
+        glAttachShader(program, fragment);
+        glLinkProgram(program);
+
+        glDeleteShader(vertex);
+        glDeleteShader(fragment);
+        return program;
+    }
+
+    public void createOverlay(int width, int height) {
+        overlayWidth = width;
+        overlayHeight = height;
+        overlayProgram = compileProgram(fragShader);
+
+        overlayVertexArrayObj = BufferUtils.createIntBuffer(1);
+        overlayVertexBufferObj = BufferUtils.createIntBuffer(1);
+        overlayElementBufferObj = BufferUtils.createIntBuffer(1);
+
+        glGenVertexArrays(overlayVertexArrayObj);
+        glGenBuffers(overlayVertexBufferObj);
+        glGenBuffers(overlayElementBufferObj);
+
+        glBindVertexArray(overlayVertexArrayObj.get(0));
+
+        glBindBuffer(GL_ARRAY_BUFFER, overlayVertexBufferObj.get(0));
+        glBufferData(GL_ARRAY_BUFFER, OVERLAY_VERTEX_DATA, GL_STATIC_DRAW);
+
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, overlayElementBufferObj.get(0));
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, QUAD_INDEX_DATA, GL_STATIC_DRAW);
+
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, 5 * (Float.SIZE / 8), 0);
+        glEnableVertexAttribArray(0);
+
+        glVertexAttribPointer(1, 2, GL_FLOAT, false, 5 * (Float.SIZE / 8), 3 * (Float.SIZE / 8));
+        glEnableVertexAttribArray(1);
+
+        overlayTextureObj = BufferUtils.createIntBuffer(1);
+        glGenTextures(overlayTextureObj);
+        glBindTexture(GL_TEXTURE_2D, overlayTextureObj.get(0));
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+
+        glUseProgram(overlayProgram);
+        glUniform1i(glGetUniformLocation(overlayProgram, "ourTexture"), 0);
+
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         glBindVertexArray(0);
+        glBindTexture(GL_TEXTURE_2D, textureObj.get(0));
+    }
+
+    public void setOverlayVisible(boolean visible) {
+        overlayVisible = visible;
+    }
+
+    public void updateOverlay(ByteBuffer pixels) {
+        glBindTexture(GL_TEXTURE_2D, overlayTextureObj.get(0));
+        glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, overlayWidth, overlayHeight, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+        glBindTexture(GL_TEXTURE_2D, textureObj.get(0));
+    }
+
+    private void displayOverlay() {
+        glEnable(GL_BLEND);
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        glUseProgram(overlayProgram);
+        glBindTexture(GL_TEXTURE_2D, overlayTextureObj.get(0));
+        glBindVertexArray(overlayVertexArrayObj.get(0));
+        glDrawElements(GL_TRIANGLES, 6, GL_UNSIGNED_INT, 0);
+        glBindTexture(GL_TEXTURE_2D, textureObj.get(0));
+        glDisable(GL_BLEND);
     }
 
     public void displayTexture() {
@@ -226,20 +383,67 @@ public class EmulatorVideo {
         glDrawElements(GL_TRIANGLES, 6, GL_UNSIGNED_INT, 0);
     }
 
-    public void updateTexture(float[] framebuffer) {
-        pixels.put(framebuffer);
-        pixels.flip();
-        glBindTexture(GL_TEXTURE_2D, textureObj.get(0));
-        glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, NES_WIDTH, NES_HEIGHT, GL_RGBA, GL_FLOAT, pixels);
+    public void updatePalette(int[] paletteLUT) {
+        if (paletteTextureObj == null) {
+            return;
+        }
+
+        glActiveTexture(GL_TEXTURE1);
+        glBindTexture(GL_TEXTURE_2D, paletteTextureObj.get(0));
+        glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, paletteLUT.length, 1, GL_RGBA, GL_UNSIGNED_BYTE, paletteLUT);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    // The frame is copied from the PPU's front buffer into the next pixel
+    // buffer in the ring, the texture is then sourced from that buffer and
+    // the driver is free to do the transfer whenever it likes
+    public void updateTexture(ByteBuffer frame) {
+        pixelBufferIndex = (pixelBufferIndex + 1) % pixelBufferCount;
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBufferObjs.get(pixelBufferIndex));
+
+        // Orphan the old storage so mapping doesn't wait on a pending transfer
+        glBufferData(GL_PIXEL_UNPACK_BUFFER, frameBytes, GL_STREAM_DRAW);
+        ByteBuffer mapped = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, frameBytes,
+                                             GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped != null) {
+            memCopy(memAddress(frame), memAddress(mapped), frameBytes);
+            glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+
+            glBindTexture(GL_TEXTURE_2D, textureObj.get(0));
+            if (format == PixelFormat.INDEXED) {
+                glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, textureWidth, textureHeight, GL_RED_INTEGER, GL_UNSIGNED_SHORT, 0L);
+            } else {
+                glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, textureWidth, textureHeight, GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+            }
+        }
+
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
     }
 
     public boolean shouldClose() {
         return glfwWindowShouldClose(window);
     }
 
+    public boolean redrawRequested() {
+        return redrawRequested;
+    }
+
+    // Handles window events without presenting, for repeated frames
+    public void pollEvents() {
+        glfwPollEvents();
+    }
+
+    public void waitEvents(double timeout) {
+        glfwWaitEventsTimeout(timeout);
+    }
+
     public void draw() {
+        redrawRequested = false;
         glClear(GL_COLOR_BUFFER_BIT);
         displayTexture();
+        if (overlayVisible && overlayTextureObj != null) {
+            displayOverlay();
+        }
         glFlush();
         glfwSwapBuffers(window);
         glfwPollEvents();
@@ -249,7 +453,18 @@ public class EmulatorVideo {
         glDeleteVertexArrays(vertexArrayObj);
         glDeleteBuffers(vertexBufferObj);
         glDeleteBuffers(elementBufferObj);
+        glDeleteBuffers(pixelBufferObjs);
         glDeleteTextures(textureObj);
+        if (overlayTextureObj != null) {
+            glDeleteVertexArrays(overlayVertexArrayObj);
+            glDeleteBuffers(overlayVertexBufferObj);
+            glDeleteBuffers(overlayElementBufferObj);
+            glDeleteTextures(overlayTextureObj);
+            glDeleteProgram(overlayProgram);
+        }
+        if (paletteTextureObj != null) {
+            glDeleteTextures(paletteTextureObj);
+        }
         glDeleteProgram(shaderProgram);
 
         glfwFreeCallbacks(window);
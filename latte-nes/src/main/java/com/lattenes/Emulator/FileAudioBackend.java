@@ -0,0 +1,119 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Emulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.lattenes.Recording.WavWriter;
+
+// Writes the samples to a .wav file, or to headerless 16-bit little endian
+// PCM for any other extension. Takes samples as fast as the disk does.
+public class FileAudioBackend implements IAudioBackend {
+    private final Path path;
+    private WavWriter wav = null;
+    private FileChannel raw = null;
+    private ByteBuffer rawBuffer = ByteBuffer.allocate(0);
+    private int capacity = 0;
+
+    public FileAudioBackend(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public boolean open(int sampleRate, int bufferCount, int bufferSamples) {
+        try {
+            if (path.toString().toLowerCase().endsWith(".wav")) {
+                wav = new WavWriter(path, sampleRate, 1);
+            } else {
+                raw = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        capacity = bufferCount * bufferSamples;
+        return true;
+    }
+
+    @Override
+    public void write(short[] samples, int count) {
+        try {
+            if (wav != null) {
+                wav.write(samples, count);
+                return;
+            }
+
+            if (rawBuffer.capacity() < count * 2) {
+                rawBuffer = ByteBuffer.allocate(count * 2).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            rawBuffer.clear();
+            rawBuffer.asShortBuffer().put(samples, 0, count);
+            rawBuffer.limit(count * 2);
+            while (rawBuffer.hasRemaining()) {
+                raw.write(rawBuffer);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public int getQueuedSamples() {
+        return 0;
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return false;
+    }
+
+    @Override
+    public void pause() {
+
+    }
+
+    @Override
+    public void resume() {
+
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (wav != null) {
+                wav.close();
+            } else if (raw != null) {
+                raw.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Emulator;
+
+// Where EmulatorAudio's output thread sends its samples. Only that thread
+// calls write, the emulation thread may poll getQueuedSamples at any time.
+public interface IAudioBackend {
+    // Returns false if the device couldn't be opened
+    public boolean open(int sampleRate, int bufferCount, int bufferSamples);
+
+    // May block until the device has room for the samples
+    public void write(short[] samples, int count);
+
+    // Samples handed to the device that haven't been played yet
+    public int getQueuedSamples();
+
+    // Most samples the device holds at once
+    public int getCapacity();
+
+    // False for sinks that take samples as fast as they come instead of at
+    // the sample rate, these can't be used to pace emulation
+    public boolean isRealTime();
+
+    public void pause();
+
+    public void resume();
+
+    public void close();
+}
@@ -0,0 +1,90 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Emulator;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+// A javax.sound line sized to hold every buffer, writes block until the
+// line has room
+public class JavaSoundAudioBackend implements IAudioBackend {
+    private SourceDataLine line = null;
+    private byte[] bytes = new byte[0];
+
+    @Override
+    public boolean open(int sampleRate, int bufferCount, int bufferSamples) {
+        try {
+            AudioFormat AF = new AudioFormat(sampleRate, 16, 1, true, false);
+            line = AudioSystem.getSourceDataLine(AF);
+            line.open(AF, 2 * bufferCount * bufferSamples);
+            line.start();
+        } catch (Exception e) {
+            e.printStackTrace();
+            line = null;
+            return false;
+        }
+        bytes = new byte[2 * bufferSamples];
+        return true;
+    }
+
+    @Override
+    public void write(short[] samples, int count) {
+        if (bytes.length < count * 2) {
+            bytes = new byte[count * 2];
+        }
+        for (int i = 0; i < count; i++) {
+            bytes[2 * i] = (byte) samples[i];
+            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        line.write(bytes, 0, count * 2);
+    }
+
+    @Override
+    public int getQueuedSamples() {
+        return (line.getBufferSize() - line.available()) / 2;
+    }
+
+    @Override
+    public int getCapacity() {
+        return line.getBufferSize() / 2;
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return true;
+    }
+
+    @Override
+    public void pause() {
+        line.flush();
+        line.stop();
+    }
+
+    @Override
+    public void resume() {
+        line.start();
+    }
+
+    @Override
+    public void close() {
+        line.stop();
+        line.close();
+    }
+}
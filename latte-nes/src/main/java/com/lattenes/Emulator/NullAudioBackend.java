@@ -0,0 +1,65 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Emulator;
+
+// Throws every sample away, for headless runs
+public class NullAudioBackend implements IAudioBackend {
+    private int capacity = 0;
+
+    @Override
+    public boolean open(int sampleRate, int bufferCount, int bufferSamples) {
+        capacity = bufferCount * bufferSamples;
+        return true;
+    }
+
+    @Override
+    public void write(short[] samples, int count) {
+
+    }
+
+    @Override
+    public int getQueuedSamples() {
+        return 0;
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return false;
+    }
+
+    @Override
+    public void pause() {
+
+    }
+
+    @Override
+    public void resume() {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Emulator;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.openal.AL;
+import org.lwjgl.openal.AL10;
+import org.lwjgl.openal.AL11;
+import org.lwjgl.openal.ALC;
+import org.lwjgl.openal.ALC10;
+import org.lwjgl.openal.ALCCapabilities;
+
+// Streams through a ring of OpenAL buffers queued on one source. Played
+// buffers are unqueued and refilled, so the latency is bounded by the
+// buffer count times the buffer size instead of the driver's line size.
+public class OpenALAudioBackend implements IAudioBackend {
+    private long device = 0;
+    private long context = 0;
+    private int source = 0;
+    private int[] buffers;
+    private int sampleRate;
+    private int bufferSamples;
+
+    private final ArrayDeque<Integer> freeBuffers = new ArrayDeque<Integer>();
+    // Sample count of each queued buffer, oldest first. Both threads
+    // unqueue played buffers, so these are only touched while holding this.
+    private final ArrayDeque<Integer> queuedSizes = new ArrayDeque<Integer>();
+    private int queuedSamples = 0;
+    private ShortBuffer upload;
+    private volatile boolean paused = false;
+
+    @Override
+    public boolean open(int sampleRate, int bufferCount, int bufferSamples) {
+        try {
+            device = ALC10.alcOpenDevice((ByteBuffer) null);
+            if (device == 0) {
+                java.lang.System.out.println("OpenAL: no audio device");
+                return false;
+            }
+            ALCCapabilities deviceCaps = ALC.createCapabilities(device);
+            context = ALC10.alcCreateContext(device, (IntBuffer) null);
+            if (context == 0 || !ALC10.alcMakeContextCurrent(context)) {
+                java.lang.System.out.println("OpenAL: could not create a context");
+                close();
+                return false;
+            }
+            AL.createCapabilities(deviceCaps);
+        } catch (Throwable e) {
+            // Missing natives end up here as well
+            e.printStackTrace();
+            close();
+            return false;
+        }
+
+        this.sampleRate = sampleRate;
+        this.bufferSamples = bufferSamples;
+        source = AL10.alGenSources();
+        buffers = new int[bufferCount];
+        AL10.alGenBuffers(buffers);
+        for (int buffer : buffers) {
+            freeBuffers.add(buffer);
+        }
+        upload = BufferUtils.createShortBuffer(bufferSamples);
+        return true;
+    }
+
+    private void reclaimBuffers() {
+        int processed = AL10.alGetSourcei(source, AL10.AL_BUFFERS_PROCESSED);
+        for (int i = 0; i < processed; i++) {
+            freeBuffers.add(AL10.alSourceUnqueueBuffers(source));
+            queuedSamples -= queuedSizes.poll();
+        }
+    }
+
+    @Override
+    public void write(short[] samples, int count) {
+        int offset = 0;
+        while (offset < count) {
+            if (!queueSamples(samples, offset, count - offset)) {
+                // Every buffer is queued, wait for about a quarter of one
+                // to play
+                LockSupport.parkNanos(250_000_000L * bufferSamples / sampleRate);
+                continue;
+            }
+            offset += Math.min(count - offset, bufferSamples);
+        }
+    }
+
+    private synchronized boolean queueSamples(short[] samples, int offset, int count) {
+        reclaimBuffers();
+        if (freeBuffers.isEmpty()) {
+            return false;
+        }
+
+        int length = Math.min(count, bufferSamples);
+        int buffer = freeBuffers.poll();
+        upload.clear();
+        upload.put(samples, offset, length).flip();
+        AL10.alBufferData(buffer, AL10.AL_FORMAT_MONO16, upload, sampleRate);
+        AL10.alSourceQueueBuffers(source, buffer);
+        queuedSizes.add(length);
+        queuedSamples += length;
+
+        // The source stops on its own once it runs out of buffers
+        if (!paused && AL10.alGetSourcei(source, AL10.AL_SOURCE_STATE) != AL10.AL_PLAYING) {
+            AL10.alSourcePlay(source);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int getQueuedSamples() {
+        reclaimBuffers();
+        // The offset is into the oldest buffer still queued
+        int queued = queuedSamples - AL10.alGetSourcei(source, AL11.AL_SAMPLE_OFFSET);
+        return Math.max(0, queued);
+    }
+
+    @Override
+    public int getCapacity() {
+        return buffers.length * bufferSamples;
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return true;
+    }
+
+    @Override
+    public void pause() {
+        paused = true;
+        AL10.alSourcePause(source);
+    }
+
+    @Override
+    public void resume() {
+        paused = false;
+        AL10.alSourcePlay(source);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (source != 0) {
+            AL10.alSourceStop(source);
+            AL10.alDeleteSources(source);
+            AL10.alDeleteBuffers(buffers);
+            source = 0;
+        }
+        if (context != 0) {
+            ALC10.alcMakeContextCurrent(0);
+            ALC10.alcDestroyContext(context);
+            context = 0;
+        }
+        if (device != 0) {
+            ALC10.alcCloseDevice(device);
+            device = 0;
+        }
+    }
+}
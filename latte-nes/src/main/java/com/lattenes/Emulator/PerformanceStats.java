@@ -0,0 +1,101 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Emulator;
+
+// Timing of the last HISTORY frames, kept in preallocated ring buffers.
+// Written by the emulation thread once per frame and read by the HUD,
+// which may be a frame behind.
+public class PerformanceStats {
+    public static final int HISTORY = 160;
+
+    // Milliseconds between the starts of consecutive frames
+    private final float[] frameTimes = new float[HISTORY];
+    // Milliseconds of wall time spent emulating the frame
+    private final float[] emulationTimes = new float[HISTORY];
+    // Milliseconds of CPU time the emulating thread used for the frame
+    private final float[] cpuTimes = new float[HISTORY];
+    // Audio buffer fill, 0 to 1
+    private final float[] audioFill = new float[HISTORY];
+    private volatile long frames = 0;
+
+    public void record(long frameNanos, long emulationNanos, long cpuNanos, float fill) {
+        int index = (int) (frames % HISTORY);
+        frameTimes[index] = frameNanos / 1e6f;
+        emulationTimes[index] = emulationNanos / 1e6f;
+        cpuTimes[index] = cpuNanos / 1e6f;
+        audioFill[index] = fill;
+        frames = frames + 1;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    // age 0 is the newest frame
+    private int indexOf(int age) {
+        return (int) ((frames - 1 - age) % HISTORY);
+    }
+
+    public float getFrameTime(int age) {
+        return frameTimes[indexOf(age)];
+    }
+
+    public float getEmulationTime(int age) {
+        return emulationTimes[indexOf(age)];
+    }
+
+    public float getCPUTime(int age) {
+        return cpuTimes[indexOf(age)];
+    }
+
+    public float getAudioFill(int age) {
+        return audioFill[indexOf(age)];
+    }
+
+    public int available() {
+        return (int) Math.min(frames, HISTORY);
+    }
+
+    public float averageFrameTime(int count) {
+        count = Math.min(count, available());
+        float total = 0.0f;
+        for (int i = 0; i < count; i++) {
+            total += getFrameTime(i);
+        }
+        return count > 0 ? total / count : 0.0f;
+    }
+
+    public float maxEmulationTime(int count) {
+        count = Math.min(count, available());
+        float max = 0.0f;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, getEmulationTime(i));
+        }
+        return max;
+    }
+
+    public float averageCPUTime(int count) {
+        count = Math.min(count, available());
+        float total = 0.0f;
+        for (int i = 0; i < count; i++) {
+            total += getCPUTime(i);
+        }
+        return count > 0 ? total / count : 0.0f;
+    }
+}
@@ -18,11 +18,77 @@
 
 package com.lattenes;
 
+import java.io.File;
+import java.nio.file.Path;
+
+import com.lattenes.Emulator.AudioBackendType;
 import com.lattenes.Emulator.Emulator;
+import com.lattenes.Emulator.SyncMode;
+import com.lattenes.Recording.QueuePolicy;
+import com.lattenes.Recording.RecordingFormat;
 
 public class LatteNes {
     public static void main( String[] args ) {
         Emulator emulatorCore = new Emulator();
+        File recordingDirectory = null;
+        RecordingFormat recordingFormat = RecordingFormat.Y4M;
+        QueuePolicy recordingPolicy = QueuePolicy.DEGRADE;
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--frameskip") && i + 1 < args.length) {
+                emulatorCore.setFrameSkip(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--palette") && i + 1 < args.length) {
+                emulatorCore.loadPalette(args[++i]);
+            } else if (args[i].equals("--pipelined")) {
+                emulatorCore.setPipelinedRendering(true);
+            } else if (args[i].equals("--threaded")) {
+                emulatorCore.setThreadedEmulation(true);
+            } else if (args[i].equals("--ntsc")) {
+                emulatorCore.setNTSCFilter(true, true);
+            } else if (args[i].equals("--ntsc-serial")) {
+                emulatorCore.setNTSCFilter(true, false);
+            } else if (args[i].equals("--record") && i + 1 < args.length) {
+                recordingDirectory = new File(args[++i]);
+            } else if (args[i].equals("--record-format") && i + 1 < args.length) {
+                recordingFormat = RecordingFormat.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("--record-policy") && i + 1 < args.length) {
+                recordingPolicy = QueuePolicy.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("--frame-delay") && i + 1 < args.length) {
+                String delay = args[++i];
+                emulatorCore.setFrameDelay(true, delay.equals("auto") ? -1 : Double.parseDouble(delay));
+            } else if (args[i].equals("--runahead") && i + 1 < args.length) {
+                emulatorCore.setRunAhead(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--sample-rate") && i + 1 < args.length) {
+                emulatorCore.setSampleRate(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--audio") && i + 1 < args.length) {
+                // openal, javasound, null, or a .wav/.raw path to write to
+                String backend = args[++i];
+                if (backend.contains(".")) {
+                    emulatorCore.setAudioBackend(AudioBackendType.FILE, Path.of(backend));
+                } else {
+                    emulatorCore.setAudioBackend(AudioBackendType.valueOf(backend.toUpperCase()), null);
+                }
+            } else if (args[i].equals("--audio-buffers") && i + 1 < args.length) {
+                emulatorCore.setAudioBufferCount(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--sync") && i + 1 < args.length) {
+                emulatorCore.setSyncMode(SyncMode.valueOf(args[++i].toUpperCase()));
+            } else if (args[i].equals("--hud")) {
+                emulatorCore.setHUDVisible(true);
+            } else if (args[i].equals("--no-dedup")) {
+                emulatorCore.setFrameDedup(false);
+            } else if (args[i].equals("--indexed")) {
+                emulatorCore.setIndexedOutput(true);
+            } else if (args[i].equals("--pbo") && i + 1 < args.length) {
+                emulatorCore.setPixelBufferCount(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--offscreen") && i + 1 < args.length) {
+                emulatorCore.setOffscreen(true, Long.parseLong(args[++i]));
+            }
+        }
+
+        if (recordingDirectory != null) {
+            emulatorCore.setRecording(recordingDirectory, recordingFormat, recordingPolicy);
+        }
+
         emulatorCore.loadAndInit(args[0]);
         emulatorCore.run();
     }
@@ -0,0 +1,78 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Recording;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+// Controller input per frame from an FCEUX .fm2 movie. Input lines look
+// like |commands|RLDUTSBA|RLDUTSBA|port2|, any character other than '.'
+// or a space is a pressed button. The header and the command field (soft
+// reset, power cycle) are ignored.
+public class InputMovie {
+    private final int[] frames;
+
+    public InputMovie(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path);
+        int[] parsed = new int[lines.size()];
+        int count = 0;
+        for (String line : lines) {
+            if (!line.startsWith("|")) {
+                continue;
+            }
+
+            String[] fields = line.split("\\|", -1);
+            int state = 0;
+            if (fields.length > 2) {
+                state |= parsePad(fields[2]);
+            }
+            if (fields.length > 3) {
+                state |= parsePad(fields[3]) << 8;
+            }
+            parsed[count++] = state;
+        }
+        frames = Arrays.copyOf(parsed, count);
+    }
+
+    // RLDUTSBA, the first character is the lowest bit, same as the bits
+    // Memory shifts out to the game
+    private static int parsePad(String buttons) {
+        int state = 0;
+        for (int i = 0; i < Math.min(8, buttons.length()); i++) {
+            char c = buttons.charAt(i);
+            if (c != '.' && c != ' ') {
+                state |= 1 << i;
+            }
+        }
+        return state;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    // Both controllers for a frame, controller 1 in the low byte. Nothing
+    // is pressed past the end of the movie.
+    public int getInput(int frame) {
+        return frame < frames.length ? frames[frame] : 0;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Recording;
+
+// What the recorder does with a frame when the writer has fallen behind
+// and all buffers are queued
+public enum QueuePolicy {
+    // Wait for the writer, emulation stalls but nothing is lost
+    BLOCK,
+    // Throw the frame and its audio away, the recording gets shorter
+    DROP,
+    // Throw the frame away but keep its audio, the writer repeats the
+    // previous frame in its place so audio and video stay in sync
+    DEGRADE
+}
@@ -0,0 +1,28 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Recording;
+
+public enum RecordingFormat {
+    // YUV4MPEG2 stream, 4:4:4 so no chroma is lost
+    Y4M,
+    // Headerless 8-bit RGB, 256x240 at 60.0988 fps
+    RAW_RGB,
+    // One PNG per frame plus an index listing the file of every frame
+    PNG
+}
@@ -0,0 +1,387 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Recording;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.imageio.ImageIO;
+
+import com.lattenes.Core.IFrameBuffer;
+import com.lattenes.Core.PixelFormat;
+import com.lattenes.Util.SPSCQueue;
+import com.lattenes.Video.FrameDeduplicator;
+
+// Records frames and audio to disk on a background thread. The emulation
+// thread copies each finished frame into a pooled buffer and queues it;
+// the writer thread converts and writes it, then hands the buffer back.
+// Frames identical to the previous one aren't copied at all, they are
+// queued as repeat markers. Audio flushed during a frame is queued along
+// with it and written to a WAV file next to the video.
+public class VideoRecorder {
+    private static final int WIDTH = IFrameBuffer.WIDTH;
+    private static final int HEIGHT = IFrameBuffer.HEIGHT;
+
+    // 60.0988 fps as the exact NTSC ratio
+    private static final String Y4M_FRAME_RATE = "39375000:655171";
+
+    private static class FrameSlot {
+        final ByteBuffer pixels;
+        PixelFormat format;
+        int[] paletteLUT;
+        boolean repeat;
+        // Frames given up under the DEGRADE policy since the last queued one
+        int repeatsBefore;
+        byte[] audio = new byte[4096];
+        int audioLength;
+
+        FrameSlot() {
+            pixels = ByteBuffer.allocateDirect(WIDTH * HEIGHT * PixelFormat.RGBA8.bytesPerPixel);
+        }
+    }
+
+    private final RecordingFormat format;
+    private final QueuePolicy policy;
+    private final SPSCQueue<FrameSlot> queued;
+    private final SPSCQueue<FrameSlot> free;
+    private final Thread writer;
+    private volatile boolean stopping = false;
+
+    // Producer side
+    private final FrameDeduplicator deduplicator = new FrameDeduplicator();
+    private byte[] pendingAudio = new byte[8192];
+    private int pendingAudioLength = 0;
+    private int pendingRepeats = 0;
+    private long droppedFrames = 0;
+    private long degradedFrames = 0;
+
+    // Writer side
+    private final File directory;
+    private final String baseName;
+    private FileChannel videoChannel;
+    private FileChannel indexChannel;
+    private WavWriter wav;
+    private ByteBuffer videoFrame;
+    private final int[] rgba = new int[WIDTH * HEIGHT];
+    private BufferedImage image;
+    private String lastImageName = null;
+    private long writtenFrames = 0;
+    private long repeatedFrames = 0;
+    private IOException writeError = null;
+
+    // Writes <baseName>.y4m / .rgb / _NNNNNN.png and <baseName>.wav into directory
+    public VideoRecorder(File directory, String baseName, RecordingFormat format, QueuePolicy policy,
+                         int queueCapacity, int sampleRate) throws IOException {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.format = format;
+        this.policy = policy;
+
+        directory.mkdirs();
+        openOutputs(sampleRate);
+
+        queued = new SPSCQueue<FrameSlot>(queueCapacity);
+        free = new SPSCQueue<FrameSlot>(queued.capacity());
+        for (int i = 0; i < queued.capacity(); i++) {
+            free.offer(new FrameSlot());
+        }
+
+        writer = new Thread(this::writeLoop, "Video recorder");
+        writer.start();
+    }
+
+    private FileChannel openChannel(String name) throws IOException {
+        Path path = new File(directory, name).toPath();
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void openOutputs(int sampleRate) throws IOException {
+        wav = new WavWriter(new File(directory, baseName + ".wav").toPath(), sampleRate, 1);
+
+        switch (format) {
+            case Y4M:
+                videoChannel = openChannel(baseName + ".y4m");
+                String header = "YUV4MPEG2 W" + WIDTH + " H" + HEIGHT + " F" + Y4M_FRAME_RATE + " Ip A1:1 C444\n";
+                writeFully(videoChannel, ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)));
+                videoFrame = ByteBuffer.allocateDirect(6 + WIDTH * HEIGHT * 3);
+                break;
+            case RAW_RGB:
+                videoChannel = openChannel(baseName + ".rgb");
+                videoFrame = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 3);
+                break;
+            case PNG:
+                indexChannel = openChannel(baseName + "_frames.txt");
+                image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+                break;
+        }
+    }
+
+    // Audio flushed by EmulatorAudio, goes out with the next recorded frame
+    public void addAudio(byte[] pcm, int length) {
+        if (pendingAudioLength + length > pendingAudio.length) {
+            byte[] grown = new byte[Math.max(pendingAudio.length * 2, pendingAudioLength + length)];
+            java.lang.System.arraycopy(pendingAudio, 0, grown, 0, pendingAudioLength);
+            pendingAudio = grown;
+        }
+        java.lang.System.arraycopy(pcm, 0, pendingAudio, pendingAudioLength, length);
+        pendingAudioLength += length;
+    }
+
+    // Called from the emulation thread once per emulated frame. Returns
+    // false if the frame didn't make it into the queue.
+    public boolean recordFrame(ByteBuffer frame, PixelFormat pixelFormat, int[] paletteLUT) {
+        if (stopping) {
+            return false;
+        }
+
+        FrameSlot slot = free.poll();
+        while (slot == null) {
+            if (policy == QueuePolicy.DROP) {
+                droppedFrames++;
+                pendingAudioLength = 0;
+                deduplicator.reset();
+                return false;
+            } else if (policy == QueuePolicy.DEGRADE) {
+                degradedFrames++;
+                pendingRepeats++;
+                deduplicator.reset();
+                return false;
+            }
+
+            LockSupport.parkNanos(100_000);
+            slot = free.poll();
+        }
+
+        int length = WIDTH * HEIGHT * pixelFormat.bytesPerPixel;
+        slot.repeat = deduplicator.isRepeat(frame, length);
+        if (!slot.repeat) {
+            slot.pixels.put(0, frame, 0, length);
+            slot.format = pixelFormat;
+            slot.paletteLUT = paletteLUT;
+        }
+
+        slot.repeatsBefore = pendingRepeats;
+        pendingRepeats = 0;
+
+        if (slot.audio.length < pendingAudioLength) {
+            slot.audio = new byte[pendingAudioLength];
+        }
+        java.lang.System.arraycopy(pendingAudio, 0, slot.audio, 0, pendingAudioLength);
+        slot.audioLength = pendingAudioLength;
+        pendingAudioLength = 0;
+
+        queued.offer(slot);
+        return true;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            FrameSlot slot = queued.poll();
+            if (slot == null) {
+                if (stopping && queued.isEmpty()) {
+                    break;
+                }
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+
+            if (writeError == null) {
+                try {
+                    writeSlot(slot);
+                } catch (IOException e) {
+                    writeError = e;
+                    e.printStackTrace();
+                }
+            }
+            free.offer(slot);
+        }
+    }
+
+    private void writeSlot(FrameSlot slot) throws IOException {
+        if (writtenFrames == 0) {
+            // Nothing to repeat yet for the frames degraded before the
+            // first one, it stands in for them so the video keeps the
+            // length of the audio
+            convertFrame(slot);
+            writeVideoFrame();
+            for (int i = 0; i < slot.repeatsBefore; i++) {
+                writeRepeat();
+            }
+        } else {
+            for (int i = 0; i < slot.repeatsBefore; i++) {
+                writeRepeat();
+            }
+
+            if (slot.repeat) {
+                writeRepeat();
+            } else {
+                convertFrame(slot);
+                writeVideoFrame();
+            }
+        }
+
+        if (slot.audioLength > 0) {
+            wav.write(slot.audio, 0, slot.audioLength);
+        }
+    }
+
+    private void convertFrame(FrameSlot slot) {
+        if (slot.format == PixelFormat.INDEXED) {
+            for (int i = 0; i < rgba.length; i++) {
+                rgba[i] = slot.paletteLUT[slot.pixels.getShort(i << 1) & 0x1FF];
+            }
+        } else {
+            for (int i = 0; i < rgba.length; i++) {
+                rgba[i] = slot.pixels.getInt(i << 2);
+            }
+        }
+    }
+
+    private void writeVideoFrame() throws IOException {
+        writtenFrames++;
+
+        switch (format) {
+            case Y4M:
+                videoFrame.clear();
+                videoFrame.put("FRAME\n".getBytes(StandardCharsets.US_ASCII));
+                fillYCbCrPlanes(videoFrame);
+                videoFrame.flip();
+                writeFully(videoChannel, videoFrame);
+                break;
+            case RAW_RGB:
+                videoFrame.clear();
+                for (int color : rgba) {
+                    videoFrame.put((byte) color);
+                    videoFrame.put((byte) (color >> 8));
+                    videoFrame.put((byte) (color >> 16));
+                }
+                videoFrame.flip();
+                writeFully(videoChannel, videoFrame);
+                break;
+            case PNG:
+                // Packed RGBA has red in the low byte, the image wants it high
+                for (int i = 0; i < rgba.length; i++) {
+                    int color = rgba[i];
+                    rgba[i] = ((color & 0xFF) << 16) | (color & 0xFF00) | ((color >> 16) & 0xFF);
+                }
+                image.setRGB(0, 0, WIDTH, HEIGHT, rgba, 0, WIDTH);
+                lastImageName = String.format("%s_%06d.png", baseName, writtenFrames - 1);
+                try (FileChannel channel = openChannel(lastImageName);
+                     OutputStream out = Channels.newOutputStream(channel)) {
+                    ImageIO.write(image, "png", out);
+                }
+                writeIndexLine(lastImageName);
+                break;
+        }
+    }
+
+    // The last frame again, already converted
+    private void writeRepeat() throws IOException {
+        repeatedFrames++;
+
+        if (format == RecordingFormat.PNG) {
+            writeIndexLine(lastImageName);
+        } else {
+            videoFrame.rewind();
+            writeFully(videoChannel, videoFrame);
+        }
+    }
+
+    private void writeIndexLine(String fileName) throws IOException {
+        writeFully(indexChannel, ByteBuffer.wrap((fileName + "\n").getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    // BT.601 limited range, one plane after the other
+    private void fillYCbCrPlanes(ByteBuffer out) {
+        int yPlane = out.position();
+        int cbPlane = yPlane + rgba.length;
+        int crPlane = cbPlane + rgba.length;
+
+        for (int i = 0; i < rgba.length; i++) {
+            int color = rgba[i];
+            int r = color & 0xFF;
+            int g = (color >> 8) & 0xFF;
+            int b = (color >> 16) & 0xFF;
+
+            out.put(yPlane + i, (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16));
+            out.put(cbPlane + i, (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128));
+            out.put(crPlane + i, (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128));
+        }
+        out.position(crPlane + rgba.length);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public long getWrittenFrameCount() {
+        return writtenFrames;
+    }
+
+    public long getRepeatedFrameCount() {
+        return repeatedFrames;
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrames;
+    }
+
+    public long getDegradedFrameCount() {
+        return degradedFrames;
+    }
+
+    // Lets the writer drain the queue and closes the files
+    public void close() {
+        stopping = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            // Audio of frames given up at the very end
+            if (pendingAudioLength > 0) {
+                wav.write(pendingAudio, 0, pendingAudioLength);
+            }
+
+            if (videoChannel != null) {
+                videoChannel.close();
+            }
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            wav.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// 16-bit PCM WAV file. The header is written with zero sizes up front and
+// patched on close, so samples can be streamed in as they come.
+public class WavWriter {
+    private static final int HEADER_SIZE = 44;
+
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channels;
+    private ByteBuffer wrapped = ByteBuffer.allocate(0);
+    private ByteBuffer samplesBuffer = ByteBuffer.allocate(0);
+    private long dataBytes = 0;
+
+    public WavWriter(Path path, int sampleRate, int channels) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        writeFully(createHeader(0), 0);
+    }
+
+    private ByteBuffer createHeader(long dataSize) {
+        int blockAlign = channels * 2;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'R', 'I', 'F', 'F' });
+        header.putInt((int) (dataSize + HEADER_SIZE - 8));
+        header.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' });
+        header.putInt(16);
+        header.putShort((short) 1);
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) 16);
+        header.put(new byte[] { 'd', 'a', 't', 'a' });
+        header.putInt((int) dataSize);
+        header.flip();
+        return header;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // Little endian 16-bit samples
+    public void write(byte[] pcm, int offset, int length) throws IOException {
+        if (wrapped.array() != pcm) {
+            wrapped = ByteBuffer.wrap(pcm);
+        }
+        wrapped.limit(offset + length).position(offset);
+        writeFully(wrapped, HEADER_SIZE + dataBytes);
+        dataBytes += length;
+    }
+
+    public void write(short[] samples, int count) throws IOException {
+        if (samplesBuffer.capacity() < count * 2) {
+            samplesBuffer = ByteBuffer.allocate(count * 2).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        samplesBuffer.clear();
+        samplesBuffer.asShortBuffer().put(samples, 0, count);
+        samplesBuffer.limit(count * 2);
+        writeFully(samplesBuffer, HEADER_SIZE + dataBytes);
+        dataBytes += count * 2;
+    }
+
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    public void close() throws IOException {
+        writeFully(createHeader(dataBytes), 0);
+        channel.close();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Tools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import com.lattenes.Core.System;
+import com.lattenes.Emulator.IAudioOutput;
+import com.lattenes.Recording.InputMovie;
+import com.lattenes.Recording.WavWriter;
+
+// Runs a ROM with no video, audio device or window and writes what the APU
+// outputs, after the usual filters, to a WAV file as fast as possible.
+// Input comes from an .fm2 movie, without one nothing is pressed.
+// Usage: AudioRenderer <rom> <output.wav> [--movie input.fm2]
+//            [--frames n] [--sample-rate rate]
+public class AudioRenderer implements IAudioOutput {
+    private final int sampleRate;
+    // One second of samples per write
+    private final short[] block;
+    private int pending = 0;
+    private WavWriter wav = null;
+    private long written = 0;
+
+    public AudioRenderer(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.block = new short[sampleRate];
+    }
+
+    @Override
+    public void outputSample(int sample) {
+        block[pending++] = (short) sample;
+        if (pending == block.length) {
+            flushSamples();
+        }
+    }
+
+    @Override
+    public void flushSamples() {
+        try {
+            wav.write(block, pending);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        written += pending;
+        pending = 0;
+    }
+
+    // Returns the number of samples written
+    public long render(String rom, InputMovie movie, int frames, Path output) throws Exception {
+        System nes = new System(rom);
+        nes.setAudioSampleRate(sampleRate);
+        // No frame is drawn, the PPU only runs what the CPU can see
+        nes.setHeadless(true);
+        nes.attachEmuAudioObject(this);
+
+        wav = new WavWriter(output, sampleRate, 1);
+        written = 0;
+        pending = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            if (movie != null) {
+                nes.getMemory().controllerState.set(movie.getInput(frame));
+            }
+
+            nes.runFrame();
+            nes.clearFrameReady();
+        }
+
+        flushSamples();
+        wav.close();
+        return written;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            java.lang.System.out.println("Usage: AudioRenderer <rom> <output.wav> [--movie input.fm2] "
+                                       + "[--frames n] [--sample-rate rate]");
+            return;
+        }
+
+        InputMovie movie = null;
+        int frames = -1;
+        int sampleRate = 44100;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--movie") && i + 1 < args.length) {
+                movie = new InputMovie(Path.of(args[++i]));
+            } else if (args[i].equals("--frames") && i + 1 < args.length) {
+                frames = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--sample-rate") && i + 1 < args.length) {
+                sampleRate = Integer.parseInt(args[++i]);
+            }
+        }
+        if (frames < 0) {
+            // A minute, or the whole movie
+            frames = movie != null ? movie.getFrameCount() : 3600;
+        }
+
+        AudioRenderer renderer = new AudioRenderer(sampleRate);
+        long start = java.lang.System.nanoTime();
+        long samples = renderer.render(args[0], movie, frames, Path.of(args[1]));
+        double seconds = (java.lang.System.nanoTime() - start) / 1e9;
+        double audioSeconds = (double) samples / sampleRate;
+        java.lang.System.out.printf("%d frames, %.1f s of audio in %.2f s, %.1fx real time%n",
+                                    frames, audioSeconds, seconds, audioSeconds / seconds);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+import com.lattenes.Core.NSFPlayer;
+import com.lattenes.Core.Cartridge.NSFFile;
+import com.lattenes.Emulator.EmulatorAudio;
+import com.lattenes.Emulator.IAudioOutput;
+import com.lattenes.Emulator.JavaSoundAudioBackend;
+import com.lattenes.Emulator.OpenALAudioBackend;
+import com.lattenes.Recording.WavWriter;
+
+// Renders every song of an NSF, or of every NSF in a directory, to WAV
+// files as fast as possible, one song per job on a pool with one thread
+// per core. A song ends after --seconds or after SILENCE_SECONDS of
+// silence, whichever comes first. With --play a single song is played on
+// the sound card instead.
+// Usage: NSFRenderer <nsf or directory> <output directory> [--seconds s]
+//            [--song n] [--threads n] [--sample-rate rate]
+//        NSFRenderer <nsf> --play [--song n] [--audio-buffers n]
+public class NSFRenderer {
+    private static final int SILENCE_SECONDS = 3;
+    private static final int SILENCE_LEVEL = 16;
+
+    // Writes one second of samples at a time and keeps track of how long
+    // the output has been quiet
+    private static class WavOutput implements IAudioOutput {
+        private final WavWriter wav;
+        private final short[] block;
+        private int pending = 0;
+        private long written = 0;
+        private long quietSamples = 0;
+        private boolean heardSound = false;
+
+        WavOutput(Path path, int sampleRate) throws IOException {
+            wav = new WavWriter(path, sampleRate, 1);
+            block = new short[sampleRate];
+        }
+
+        @Override
+        public void outputSample(int sample) {
+            if (Math.abs(sample) < SILENCE_LEVEL) {
+                quietSamples++;
+            } else {
+                quietSamples = 0;
+                heardSound = true;
+            }
+
+            block[pending++] = (short) sample;
+            if (pending == block.length) {
+                flushSamples();
+            }
+        }
+
+        @Override
+        public void flushSamples() {
+            try {
+                wav.write(block, pending);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            written += pending;
+            pending = 0;
+        }
+
+        void close() throws IOException {
+            flushSamples();
+            wav.close();
+        }
+    }
+
+    private final File outputDirectory;
+    private final int seconds;
+    private final int sampleRate;
+
+    public NSFRenderer(File outputDirectory, int seconds, int sampleRate) {
+        this.outputDirectory = outputDirectory;
+        this.seconds = seconds;
+        this.sampleRate = sampleRate;
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        return extension > 0 ? name.substring(0, extension) : name;
+    }
+
+    // Returns the number of samples written
+    public long render(File nsf, int song) throws Exception {
+        NSFPlayer player = new NSFPlayer(nsf.toPath());
+        player.setAudioSampleRate(sampleRate);
+        File output = new File(outputDirectory, String.format("%s_%02d.wav", baseName(nsf), song));
+        WavOutput wav = new WavOutput(output.toPath(), sampleRate);
+        player.attachAudioOutput(wav);
+
+        player.startSong(song);
+        long maxSamples = (long) seconds * sampleRate;
+        long silence = (long) SILENCE_SECONDS * sampleRate;
+        while (wav.written + wav.pending < maxSamples) {
+            player.runFrame();
+            if (wav.heardSound && wav.quietSamples >= silence) {
+                break;
+            }
+        }
+        wav.close();
+        return wav.written;
+    }
+
+    // Plays a song until the process is stopped, paced by the sound card
+    public static void play(File nsf, int song, int sampleRate, int bufferCount) throws Exception {
+        NSFPlayer player = new NSFPlayer(nsf.toPath());
+        EmulatorAudio audio = new EmulatorAudio(new OpenALAudioBackend(), sampleRate, bufferCount);
+        if (!audio.isOpen()) {
+            audio = new EmulatorAudio(new JavaSoundAudioBackend(), sampleRate, bufferCount);
+        }
+        if (!audio.isRealTime()) {
+            java.lang.System.out.println("No audio device");
+            return;
+        }
+
+        NSFFile file = player.getFile();
+        java.lang.System.out.println(file.name + " - " + file.artist + " (" + file.copyright + "), song "
+                                   + song + " of " + file.songCount);
+        player.setAudioSampleRate(sampleRate);
+        player.attachAudioOutput(audio);
+        player.startSong(song);
+
+        // Two frames of audio queued, like the emulator's audio sync
+        int target = (int) (sampleRate * 2 / 60.0988);
+        while (true) {
+            player.runFrame();
+            audio.flushSamples();
+            while (!audio.bufHasLT(target)) {
+                LockSupport.parkNanos(500_000);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            java.lang.System.out.println("Usage: NSFRenderer <nsf or directory> <output directory> [--seconds s] "
+                                       + "[--song n] [--threads n] [--sample-rate rate]");
+            java.lang.System.out.println("       NSFRenderer <nsf> --play [--song n] [--audio-buffers n]");
+            return;
+        }
+
+        boolean play = false;
+        int seconds = 180;
+        int song = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int sampleRate = 44100;
+        int bufferCount = 8;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--play")) {
+                play = true;
+            } else if (args[i].equals("--seconds") && i + 1 < args.length) {
+                seconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--song") && i + 1 < args.length) {
+                song = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--sample-rate") && i + 1 < args.length) {
+                sampleRate = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--audio-buffers") && i + 1 < args.length) {
+                bufferCount = Integer.parseInt(args[++i]);
+            }
+        }
+
+        File input = new File(args[0]);
+        if (play) {
+            int startingSong = song > 0 ? song : new NSFFile(input.toPath()).startingSong;
+            play(input, startingSong, sampleRate, bufferCount);
+            return;
+        }
+
+        File[] files = input.isDirectory()
+                     ? input.listFiles((dir, name) -> name.toLowerCase().endsWith(".nsf"))
+                     : new File[] { input };
+        if (files == null || files.length == 0) {
+            java.lang.System.out.println("No NSF files found in " + args[0]);
+            return;
+        }
+        Arrays.sort(files);
+
+        File outputDirectory = new File(args[1]);
+        outputDirectory.mkdirs();
+        NSFRenderer renderer = new NSFRenderer(outputDirectory, seconds, sampleRate);
+
+        long start = java.lang.System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<String> names = new ArrayList<String>();
+        List<Future<Long>> jobs = new ArrayList<Future<Long>>();
+        for (File nsf : files) {
+            int songCount;
+            try {
+                songCount = new NSFFile(nsf.toPath()).songCount;
+            } catch (Exception e) {
+                java.lang.System.out.println(nsf.getName() + ": " + e.getMessage());
+                continue;
+            }
+
+            for (int s = 1; s <= songCount; s++) {
+                if (song > 0 && s != song) {
+                    continue;
+                }
+                final int songNumber = s;
+                names.add(nsf.getName() + " song " + s);
+                jobs.add(pool.submit(() -> renderer.render(nsf, songNumber)));
+            }
+        }
+
+        int failed = 0;
+        long totalSamples = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                totalSamples += jobs.get(i).get();
+            } catch (Exception e) {
+                failed++;
+                java.lang.System.out.println(names.get(i) + ": " + e.getCause());
+            }
+        }
+        pool.shutdown();
+
+        double elapsed = (java.lang.System.nanoTime() - start) / 1e9;
+        double audioSeconds = (double) totalSamples / sampleRate;
+        java.lang.System.out.printf("%d songs (%d failed), %.0f s of audio in %.2f s on %d threads, %.1fx real time%n",
+                                    jobs.size(), failed, audioSeconds, elapsed, threads, audioSeconds / elapsed);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.lattenes.Core.IFrameBuffer;
+import com.lattenes.Core.NESPalette;
+import com.lattenes.Video.FrameScaler;
+import com.lattenes.Video.IScaleFilter;
+
+// Measures how many output megapixels per second each scale filter
+// produces, on the calling thread and split over the common ForkJoinPool.
+// Usage: ScalerBenchmark [frames]
+public class ScalerBenchmark {
+    private static final String[] FILTERS = { "2x", "3x", "4x", "scale2x", "scale3x", "2xbr" };
+
+    // Tiles of flat color with diagonal edges, so the edge detecting
+    // filters have work to do on most pixels
+    private static void fillTestFrame(int[] frame) {
+        int[] lut = NESPalette.createDefault();
+        for (int y = 0; y < IFrameBuffer.HEIGHT; y++) {
+            for (int x = 0; x < IFrameBuffer.WIDTH; x++) {
+                int tile = ((y >> 3) * 7 + (x >> 3) * 3) & 0x3F;
+                int color = ((x & 7) > (y & 7)) ? tile : (tile + 0x11) & 0x3F;
+                frame[y * IFrameBuffer.WIDTH + x] = lut[color];
+            }
+        }
+    }
+
+    private static double run(FrameScaler scaler, int frames) {
+        // Warm up so the JIT has compiled the inner loops
+        for (int i = 0; i < Math.max(20, frames / 5); i++) {
+            scaler.scale();
+        }
+
+        long start = java.lang.System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            scaler.scale();
+        }
+        long elapsed = java.lang.System.nanoTime() - start;
+
+        double pixels = (double) scaler.getOutputWidth() * scaler.getOutputHeight() * frames;
+        return pixels / (elapsed / 1e3);
+    }
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        java.lang.System.out.printf("%d frames, %d worker threads%n", frames, pool.getParallelism());
+        java.lang.System.out.printf("%-10s %12s %12s%n", "Filter", "Serial MP/s", "Pooled MP/s");
+
+        for (String name : FILTERS) {
+            IScaleFilter filter = FrameScaler.createFilter(name);
+            FrameScaler serial = new FrameScaler(filter, null);
+            FrameScaler pooled = new FrameScaler(filter, pool);
+            fillTestFrame(serial.getSource());
+            fillTestFrame(pooled.getSource());
+
+            java.lang.System.out.printf("%-10s %12.1f %12.1f%n", filter.getName(),
+                                        run(serial, frames), run(pooled, frames));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import com.lattenes.Core.IFrameBuffer;
+import com.lattenes.Core.System;
+
+// Boots every ROM in a directory without video, audio or input and saves a
+// PNG of the screen once something is shown on it. Each ROM runs in its own
+// System on a pool with one thread per core.
+// Usage: ThumbnailGenerator <rom directory> <output directory>
+//            [--frames max] [--min-frames min] [--threads n]
+public class ThumbnailGenerator {
+    private final File outputDirectory;
+    private final int maxFrames;
+    private final int minFrames;
+
+    public ThumbnailGenerator(File outputDirectory, int maxFrames, int minFrames) {
+        this.outputDirectory = outputDirectory;
+        this.maxFrames = maxFrames;
+        this.minFrames = minFrames;
+    }
+
+    // A frame is blank if every pixel has the same color
+    private static boolean isBlank(ByteBuffer frame) {
+        int first = frame.getInt(0);
+        for (int i = 4; i < IFrameBuffer.WIDTH * IFrameBuffer.HEIGHT * 4; i += 4) {
+            if (frame.getInt(i) != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Runs until there is something on screen, at least minFrames and at
+    // most maxFrames. Returns the number of frames emulated.
+    public int generate(File rom) throws Exception {
+        System nes = new System(rom.getPath());
+
+        int frames = 0;
+        while (frames < maxFrames) {
+            do {
+                nes.tick();
+            } while (!nes.frameReady());
+            nes.clearFrameReady();
+            frames++;
+
+            if (frames >= minFrames && !isBlank(nes.getFrameBuffer().getFrontBuffer())) {
+                break;
+            }
+        }
+
+        ByteBuffer frame = nes.getFrameBuffer().getFrontBuffer();
+        BufferedImage image = new BufferedImage(IFrameBuffer.WIDTH, IFrameBuffer.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < IFrameBuffer.HEIGHT; y++) {
+            for (int x = 0; x < IFrameBuffer.WIDTH; x++) {
+                int color = frame.getInt((y * IFrameBuffer.WIDTH + x) << 2);
+                image.setRGB(x, y, ((color & 0xFF) << 16) | (color & 0xFF00) | ((color >> 16) & 0xFF));
+            }
+        }
+
+        String name = rom.getName();
+        int extension = name.lastIndexOf('.');
+        if (extension > 0) {
+            name = name.substring(0, extension);
+        }
+        ImageIO.write(image, "png", new File(outputDirectory, name + ".png"));
+        return frames;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            java.lang.System.out.println("Usage: ThumbnailGenerator <rom directory> <output directory> "
+                                       + "[--frames max] [--min-frames min] [--threads n]");
+            return;
+        }
+
+        int maxFrames = 600;
+        int minFrames = 60;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--frames") && i + 1 < args.length) {
+                maxFrames = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--min-frames") && i + 1 < args.length) {
+                minFrames = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+
+        File[] roms = new File(args[0]).listFiles((dir, name) -> name.toLowerCase().endsWith(".nes"));
+        if (roms == null || roms.length == 0) {
+            java.lang.System.out.println("No ROMs found in " + args[0]);
+            return;
+        }
+        Arrays.sort(roms);
+
+        File outputDirectory = new File(args[1]);
+        outputDirectory.mkdirs();
+        ThumbnailGenerator generator = new ThumbnailGenerator(outputDirectory, maxFrames, minFrames);
+
+        long start = java.lang.System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> jobs = new ArrayList<Future<Integer>>();
+        for (File rom : roms) {
+            jobs.add(pool.submit(() -> generator.generate(rom)));
+        }
+
+        int failed = 0;
+        long totalFrames = 0;
+        for (int i = 0; i < roms.length; i++) {
+            try {
+                totalFrames += jobs.get(i).get();
+            } catch (Exception e) {
+                failed++;
+                java.lang.System.out.println(roms[i].getName() + ": " + e.getCause());
+            }
+        }
+        pool.shutdown();
+
+        double seconds = (java.lang.System.nanoTime() - start) / 1e9;
+        java.lang.System.out.printf("%d ROMs (%d failed) in %.2f s on %d threads, %.2f ROMs/s, %.0f frames/s%n",
+                                    roms.length, failed, seconds, threads,
+                                    roms.length / seconds, totalFrames / seconds);
+    }
+}
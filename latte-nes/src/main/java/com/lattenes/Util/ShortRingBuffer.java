@@ -0,0 +1,67 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Preallocated lock-free ring of 16-bit samples for exactly one producer
+// thread and one consumer thread. The capacity is rounded up to a power
+// of two.
+public class ShortRingBuffer {
+    private final short[] samples;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    public ShortRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        samples = new short[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    // Producer side, returns how many samples fit
+    public int write(short[] source, int offset, int length) {
+        long t = tail.get();
+        int count = Math.min(length, samples.length - (int) (t - head.get()));
+        for (int i = 0; i < count; i++) {
+            samples[(int) (t + i) & mask] = source[offset + i];
+        }
+        tail.setRelease(t + count);
+        return count;
+    }
+
+    // Consumer side, returns how many samples were read
+    public int read(short[] destination, int offset, int length) {
+        long h = head.get();
+        int count = Math.min(length, (int) (tail.get() - h));
+        for (int i = 0; i < count; i++) {
+            destination[offset + i] = samples[(int) (h + i) & mask];
+        }
+        head.setRelease(h + count);
+        return count;
+    }
+}
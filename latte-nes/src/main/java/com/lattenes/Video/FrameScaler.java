@@ -0,0 +1,142 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Video;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.lattenes.Core.IFrameBuffer;
+import com.lattenes.Core.PixelFormat;
+
+// Runs an IScaleFilter over whole frames without touching OpenGL. The
+// source rows are split into bands that are scaled on a ForkJoinPool, or
+// on the calling thread when no pool is given. The source and output
+// arrays are reused between frames.
+public class FrameScaler {
+    // Rows per task, small enough to balance 240 rows over many cores
+    private static final int BAND_ROWS = 16;
+
+    private final IScaleFilter filter;
+    private final ForkJoinPool pool;
+    private final int width = IFrameBuffer.WIDTH;
+    private final int height = IFrameBuffer.HEIGHT;
+    private final int[] source;
+    private final int[] output;
+
+    private class ScaleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstRow;
+        private final int lastRow;
+
+        ScaleTask(int firstRow, int lastRow) {
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastRow - firstRow <= BAND_ROWS) {
+                filter.scaleRows(source, width, height, output, firstRow, lastRow);
+                return;
+            }
+
+            int middle = (firstRow + lastRow) >>> 1;
+            invokeAll(new ScaleTask(firstRow, middle), new ScaleTask(middle, lastRow));
+        }
+    }
+
+    public FrameScaler(IScaleFilter filter, ForkJoinPool pool) {
+        this.filter = filter;
+        this.pool = pool;
+        this.source = new int[width * height];
+        this.output = new int[width * height * filter.getScale() * filter.getScale()];
+    }
+
+    public IScaleFilter getFilter() {
+        return filter;
+    }
+
+    public int getOutputWidth() {
+        return width * filter.getScale();
+    }
+
+    public int getOutputHeight() {
+        return height * filter.getScale();
+    }
+
+    // Pixel array the frame was last scaled from, packed RGBA
+    public int[] getSource() {
+        return source;
+    }
+
+    // Copies a PPU frame into the source array, indexed frames are resolved
+    // through the palette table first
+    public void loadFrame(ByteBuffer frame, PixelFormat format, int[] paletteLUT) {
+        if (format == PixelFormat.INDEXED) {
+            for (int i = 0; i < source.length; i++) {
+                source[i] = paletteLUT[frame.getShort(i << 1) & 0x1FF];
+            }
+        } else {
+            for (int i = 0; i < source.length; i++) {
+                source[i] = frame.getInt(i << 2);
+            }
+        }
+    }
+
+    // Scales whatever is in the source array, returns the output array
+    public int[] scale() {
+        if (pool == null) {
+            filter.scaleRows(source, width, height, output, 0, height);
+        } else {
+            pool.invoke(new ScaleTask(0, height));
+        }
+        return output;
+    }
+
+    public int[] scale(ByteBuffer frame, PixelFormat format, int[] paletteLUT) {
+        loadFrame(frame, format, paletteLUT);
+        return scale();
+    }
+
+    public static IScaleFilter createFilter(String name) {
+        switch (name.toLowerCase()) {
+            case "none":
+            case "1x":
+                return new IntegerScaler(1);
+            case "2x":
+                return new IntegerScaler(2);
+            case "3x":
+                return new IntegerScaler(3);
+            case "4x":
+                return new IntegerScaler(4);
+            case "scale2x":
+            case "epx":
+                return new Scale2x();
+            case "scale3x":
+                return new Scale3x();
+            case "2xbr":
+            case "xbr":
+                return new XBR2x();
+            default:
+                throw new IllegalArgumentException("Unknown scale filter: " + name);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Video;
+
+// A software upscaler. Pixels are packed RGBA ints, the same format the
+// palette table uses, stored top row first. Implementations must only
+// write the output rows belonging to [firstRow, lastRow) of the source so
+// that FrameScaler can hand disjoint row ranges to different threads.
+public interface IScaleFilter {
+    public String getName();
+
+    public int getScale();
+
+    public void scaleRows(int[] source, int width, int height, int[] dest, int firstRow, int lastRow);
+}
@@ -0,0 +1,63 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Video;
+
+import java.util.Arrays;
+
+// Nearest neighbour scaling by a whole factor, each source row is widened
+// once and the result copied into the remaining output rows
+public class IntegerScaler implements IScaleFilter {
+    private final int scale;
+
+    public IntegerScaler(int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale must be at least 1");
+        }
+        this.scale = scale;
+    }
+
+    @Override
+    public String getName() {
+        return "Integer" + scale + "x";
+    }
+
+    @Override
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    public void scaleRows(int[] source, int width, int height, int[] dest, int firstRow, int lastRow) {
+        final int destWidth = width * scale;
+
+        for (int y = firstRow; y < lastRow; y++) {
+            int sourceRow = y * width;
+            int destRow = y * scale * destWidth;
+
+            for (int x = 0; x < width; x++) {
+                int start = destRow + x * scale;
+                Arrays.fill(dest, start, start + scale, source[sourceRow + x]);
+            }
+
+            for (int i = 1; i < scale; i++) {
+                java.lang.System.arraycopy(dest, destRow, dest, destRow + i * destWidth, destWidth);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Video;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.lattenes.Core.IFrameBuffer;
+import com.lattenes.Core.NESPalette;
+
+// NTSC composite video filter for indexed PPU frames, in the spirit of
+// blargg's nes_ntsc. The PPU generates each pixel as 8 samples of a square
+// wave with 12 phases per color subcarrier cycle; the decoder averages a
+// 12 sample window around every output pixel into Y, I and Q and converts
+// that to RGB.
+// https://www.nesdev.org/wiki/NTSC_video
+//
+// Decoding is linear, so the RGB each input pixel adds to the outputs
+// around it only depends on its palette index and on which of the 3
+// possible subcarrier phases it starts on. Those contributions are
+// precomputed into a table and a frame then costs two lookups and adds per
+// channel per output pixel. Output is 512x240, two pixels per input pixel.
+public class NTSCFilter {
+    public static final int OUTPUT_WIDTH = IFrameBuffer.WIDTH * 2;
+    public static final int OUTPUT_HEIGHT = IFrameBuffer.HEIGHT;
+
+    private static final int SAMPLES_PER_PIXEL = 8;
+    private static final int PHASES = 3;
+
+    // Composite levels in volts for luma levels 0-3, low and high halves of
+    // the square wave
+    private static final float[] LOW_LEVELS = { 0.228f, 0.312f, 0.552f, 0.880f };
+    private static final float[] HIGH_LEVELS = { 0.616f, 0.840f, 1.100f, 1.100f };
+    private static final float BLACK = 0.312f;
+    private static final float WHITE = 1.100f;
+    private static final float EMPHASIS_ATTENUATION = 0.746f;
+    private static final float HUE_OFFSET = 3.9f;
+
+    // Which parts of a pixel's 8 samples each contribution covers. An
+    // output pixel sees all of its own input pixel and half of a neighbour.
+    private static final int FULL = 0;
+    private static final int FIRST_HALF = 1;
+    private static final int SECOND_HALF = 2;
+    private static final int PARTS = 3;
+
+    // Fractional bits of the precomputed contributions
+    private static final int FRACTION_BITS = 8;
+
+    // [((index * PHASES + phase) * PARTS + part) * 3 + channel]
+    private final int[] kernels = new int[NESPalette.LUT_SIZE * PHASES * PARTS * 3];
+    private final ForkJoinPool pool;
+
+    private ByteBuffer source;
+    private int[] dest;
+    private int burstPhase;
+
+    private class ScanlineTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstRow;
+        private final int lastRow;
+
+        ScanlineTask(int firstRow, int lastRow) {
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastRow - firstRow <= 16) {
+                for (int y = firstRow; y < lastRow; y++) {
+                    filterScanline(y);
+                }
+                return;
+            }
+
+            int middle = (firstRow + lastRow) >>> 1;
+            invokeAll(new ScanlineTask(firstRow, middle), new ScanlineTask(middle, lastRow));
+        }
+    }
+
+    // Scanlines are filtered on pool, or on the calling thread if it is null
+    public NTSCFilter(ForkJoinPool pool) {
+        this.pool = pool;
+        buildKernels();
+    }
+
+    private static boolean inColorPhase(int color, int phase) {
+        return (color + phase) % 12 < 6;
+    }
+
+    // Normalized composite level of one sample of index at phase
+    private static float sampleLevel(int index, int phase) {
+        int color = index & 0x0F;
+        int level = (index >> 4) & 0x03;
+        int emphasis = index >> 6;
+
+        // Colors $xE and $xF are black
+        if (color > 13) {
+            level = 1;
+        }
+
+        float low = LOW_LEVELS[level];
+        float high = HIGH_LEVELS[level];
+        if (color == 0) {
+            low = high;
+        } else if (color > 12) {
+            high = low;
+        }
+
+        float signal = inColorPhase(color, phase) ? high : low;
+        if (((emphasis & 0x1) != 0 && inColorPhase(0, phase))
+         || ((emphasis & 0x2) != 0 && inColorPhase(4, phase))
+         || ((emphasis & 0x4) != 0 && inColorPhase(8, phase))) {
+            signal *= EMPHASIS_ATTENUATION;
+        }
+
+        return (signal - BLACK) / (WHITE - BLACK);
+    }
+
+    private void buildKernels() {
+        for (int index = 0; index < NESPalette.LUT_SIZE; index++) {
+            for (int phase = 0; phase < PHASES; phase++) {
+                for (int part = 0; part < PARTS; part++) {
+                    int first = part == SECOND_HALF ? SAMPLES_PER_PIXEL / 2 : 0;
+                    int last = part == FIRST_HALF ? SAMPLES_PER_PIXEL / 2 : SAMPLES_PER_PIXEL;
+
+                    double y = 0.0, i = 0.0, q = 0.0;
+                    for (int sample = first; sample < last; sample++) {
+                        int samplePhase = phase * 4 + sample;
+                        double level = sampleLevel(index, samplePhase % 12);
+                        double angle = Math.PI * (samplePhase + HUE_OFFSET) / 6.0;
+                        y += level;
+                        i += level * Math.cos(angle);
+                        q += level * Math.sin(angle);
+                    }
+
+                    // Averaged over the 12 sample window, chroma demodulation
+                    // has a gain of 2
+                    y /= 12.0;
+                    i /= 6.0;
+                    q /= 6.0;
+
+                    double r = y + 0.946882 * i + 0.623557 * q;
+                    double g = y - 0.274788 * i - 0.635691 * q;
+                    double b = y - 1.108545 * i + 1.709007 * q;
+
+                    int k = ((index * PHASES + phase) * PARTS + part) * 3;
+                    kernels[k] = (int) Math.round(r * 255.0 * (1 << FRACTION_BITS));
+                    kernels[k + 1] = (int) Math.round(g * 255.0 * (1 << FRACTION_BITS));
+                    kernels[k + 2] = (int) Math.round(b * 255.0 * (1 << FRACTION_BITS));
+                }
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        value >>= FRACTION_BITS;
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private int kernelOffset(int x, int row, int phase, int part) {
+        if (x < 0 || x >= IFrameBuffer.WIDTH) {
+            return -1;
+        }
+        int index = source.getShort((row + x) << 1) & 0x1FF;
+        return ((index * PHASES + phase) * PARTS + part) * 3;
+    }
+
+    private void filterScanline(int y) {
+        final int row = y * IFrameBuffer.WIDTH;
+        final int out = y * OUTPUT_WIDTH;
+
+        for (int x = 0; x < IFrameBuffer.WIDTH; x++) {
+            // Every pixel is 8 samples, so the phase moves by 2/3 of a
+            // cycle per pixel and by 1/3 of a cycle per scanline
+            int phase = (2 * x + y + burstPhase) % PHASES;
+            int self = kernelOffset(x, row, phase, FULL);
+            int left = kernelOffset(x - 1, row, (phase + 1) % PHASES, SECOND_HALF);
+            int right = kernelOffset(x + 1, row, (phase + 2) % PHASES, FIRST_HALF);
+
+            int r = kernels[self], g = kernels[self + 1], b = kernels[self + 2];
+
+            int r0 = r, g0 = g, b0 = b;
+            if (left >= 0) {
+                r0 += kernels[left];
+                g0 += kernels[left + 1];
+                b0 += kernels[left + 2];
+            }
+            dest[out + 2 * x] = NESPalette.packRGBA(clamp(r0), clamp(g0), clamp(b0));
+
+            if (right >= 0) {
+                r += kernels[right];
+                g += kernels[right + 1];
+                b += kernels[right + 2];
+            }
+            dest[out + 2 * x + 1] = NESPalette.packRGBA(clamp(r), clamp(g), clamp(b));
+        }
+    }
+
+    // Filters an INDEXED frame into dest, OUTPUT_WIDTH x OUTPUT_HEIGHT packed
+    // RGBA. burstPhase (0-2) is the subcarrier phase of the first pixel; a
+    // frame isn't a whole number of subcarrier cycles, so it changes between
+    // frames.
+    public void filter(ByteBuffer frame, int[] dest, int burstPhase) {
+        if (dest.length < OUTPUT_WIDTH * OUTPUT_HEIGHT) {
+            throw new IllegalArgumentException("Output must hold " + OUTPUT_WIDTH * OUTPUT_HEIGHT + " pixels");
+        }
+
+        this.source = frame;
+        this.dest = dest;
+        this.burstPhase = burstPhase % PHASES;
+
+        if (pool == null) {
+            for (int y = 0; y < OUTPUT_HEIGHT; y++) {
+                filterScanline(y);
+            }
+        } else {
+            pool.invoke(new ScanlineTask(0, OUTPUT_HEIGHT));
+        }
+    }
+}
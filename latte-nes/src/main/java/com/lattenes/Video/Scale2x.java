@@ -0,0 +1,73 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Video;
+
+// Scale2x, which produces the same output as EPX
+// https://www.scale2x.it/algorithm
+//
+//   A B C      E0 E1
+//   D E F  ->  E2 E3
+//   G H I
+public class Scale2x implements IScaleFilter {
+    @Override
+    public String getName() {
+        return "Scale2x";
+    }
+
+    @Override
+    public int getScale() {
+        return 2;
+    }
+
+    @Override
+    public void scaleRows(int[] source, int width, int height, int[] dest, int firstRow, int lastRow) {
+        final int destWidth = width * 2;
+
+        for (int y = firstRow; y < lastRow; y++) {
+            int row = y * width;
+            int above = y > 0 ? row - width : row;
+            int below = y < height - 1 ? row + width : row;
+            int destRow = y * 2 * destWidth;
+
+            for (int x = 0; x < width; x++) {
+                int left = x > 0 ? x - 1 : x;
+                int right = x < width - 1 ? x + 1 : x;
+
+                int B = source[above + x];
+                int D = source[row + left];
+                int E = source[row + x];
+                int F = source[row + right];
+                int H = source[below + x];
+
+                int out = destRow + x * 2;
+                if (B != H && D != F) {
+                    dest[out] = D == B ? D : E;
+                    dest[out + 1] = B == F ? F : E;
+                    dest[out + destWidth] = D == H ? D : E;
+                    dest[out + destWidth + 1] = H == F ? F : E;
+                } else {
+                    dest[out] = E;
+                    dest[out + 1] = E;
+                    dest[out + destWidth] = E;
+                    dest[out + destWidth + 1] = E;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Video;
+
+// Scale3x, see https://www.scale2x.it/algorithm
+//
+//   A B C      E0 E1 E2
+//   D E F  ->  E3 E4 E5
+//   G H I      E6 E7 E8
+public class Scale3x implements IScaleFilter {
+    @Override
+    public String getName() {
+        return "Scale3x";
+    }
+
+    @Override
+    public int getScale() {
+        return 3;
+    }
+
+    @Override
+    public void scaleRows(int[] source, int width, int height, int[] dest, int firstRow, int lastRow) {
+        final int destWidth = width * 3;
+
+        for (int y = firstRow; y < lastRow; y++) {
+            int row = y * width;
+            int above = y > 0 ? row - width : row;
+            int below = y < height - 1 ? row + width : row;
+            int destRow = y * 3 * destWidth;
+
+            for (int x = 0; x < width; x++) {
+                int left = x > 0 ? x - 1 : x;
+                int right = x < width - 1 ? x + 1 : x;
+
+                int A = source[above + left];
+                int B = source[above + x];
+                int C = source[above + right];
+                int D = source[row + left];
+                int E = source[row + x];
+                int F = source[row + right];
+                int G = source[below + left];
+                int H = source[below + x];
+                int I = source[below + right];
+
+                int out = destRow + x * 3;
+                int out1 = out + destWidth;
+                int out2 = out1 + destWidth;
+                if (B != H && D != F) {
+                    dest[out] = D == B ? D : E;
+                    dest[out + 1] = (D == B && E != C) || (B == F && E != A) ? B : E;
+                    dest[out + 2] = B == F ? F : E;
+                    dest[out1] = (D == B && E != G) || (D == H && E != A) ? D : E;
+                    dest[out1 + 1] = E;
+                    dest[out1 + 2] = (B == F && E != I) || (H == F && E != C) ? F : E;
+                    dest[out2] = D == H ? D : E;
+                    dest[out2 + 1] = (D == H && E != I) || (H == F && E != G) ? H : E;
+                    dest[out2 + 2] = H == F ? F : E;
+                } else {
+                    dest[out] = E;
+                    dest[out + 1] = E;
+                    dest[out + 2] = E;
+                    dest[out1] = E;
+                    dest[out1 + 1] = E;
+                    dest[out1 + 2] = E;
+                    dest[out2] = E;
+                    dest[out2 + 1] = E;
+                    dest[out2 + 2] = E;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * LatteNES: Nintendo Entertainment System (NES) Emulator written in Java
+ * Copyright (C) 2022 Daniel Frias
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of  MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lattenes.Video;
+
+// Reduced 2xBR (level 1 rules only). For each of the four output corners
+// of a pixel the weighted color distances along the two diagonals through
+// that corner are compared; when the edge runs across the corner, the
+// corner is blended halfway towards the closer of the two neighbours.
+//
+//        A1 B1 C1
+//     A0  A  B  C C4
+//     D0  D  E  F F4
+//     G0  G  H  I I4
+//        G5 H5 I5
+//
+// The rules are symmetric in x and y, so the other three corners are the
+// bottom right corner with the neighbourhood mirrored.
+public class XBR2x implements IScaleFilter {
+    @Override
+    public String getName() {
+        return "2xBR";
+    }
+
+    @Override
+    public int getScale() {
+        return 2;
+    }
+
+    // Distance in a YUV like space, luma weighted highest
+    private static int distance(int a, int b) {
+        int r = (a & 0xFF) - (b & 0xFF);
+        int g = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+        int bl = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+
+        int y = Math.abs(r * 299 + g * 587 + bl * 114) / 1000;
+        int u = Math.abs(r * -169 + g * -331 + bl * 500) / 1000;
+        int v = Math.abs(r * 500 + g * -419 + bl * -81) / 1000;
+        return 48 * y + 7 * u + 6 * v;
+    }
+
+    private static int blend(int a, int b) {
+        return ((a & 0xFEFEFEFE) >>> 1) + ((b & 0xFEFEFEFE) >>> 1) + (a & b & 0x01010101);
+    }
+
+    private static int pixel(int[] source, int width, int height, int x, int y) {
+        x = Math.max(0, Math.min(width - 1, x));
+        y = Math.max(0, Math.min(height - 1, y));
+        return source[y * width + x];
+    }
+
+    // dx and dy pick the corner, +1 being right and down
+    private static int corner(int[] source, int width, int height, int x, int y, int dx, int dy) {
+        int E = pixel(source, width, height, x, y);
+        int F = pixel(source, width, height, x + dx, y);
+        int H = pixel(source, width, height, x, y + dy);
+        if (E == F || E == H) {
+            return E;
+        }
+
+        int I = pixel(source, width, height, x + dx, y + dy);
+        int B = pixel(source, width, height, x, y - dy);
+        int D = pixel(source, width, height, x - dx, y);
+        int C = pixel(source, width, height, x + dx, y - dy);
+        int G = pixel(source, width, height, x - dx, y + dy);
+        int F4 = pixel(source, width, height, x + 2 * dx, y);
+        int H5 = pixel(source, width, height, x, y + 2 * dy);
+        int I4 = pixel(source, width, height, x + 2 * dx, y + dy);
+        int I5 = pixel(source, width, height, x + dx, y + 2 * dy);
+
+        int across = distance(E, C) + distance(E, G) + distance(I, F4) + distance(I, H5) + 4 * distance(H, F);
+        int along = distance(H, D) + distance(H, I5) + distance(F, I4) + distance(F, B) + 4 * distance(E, I);
+        if (across >= along) {
+            return E;
+        }
+
+        return blend(E, distance(E, F) <= distance(E, H) ? F : H);
+    }
+
+    @Override
+    public void scaleRows(int[] source, int width, int height, int[] dest, int firstRow, int lastRow) {
+        final int destWidth = width * 2;
+
+        for (int y = firstRow; y < lastRow; y++) {
+            int destRow = y * 2 * destWidth;
+
+            for (int x = 0; x < width; x++) {
+                int out = destRow + x * 2;
+                dest[out] = corner(source, width, height, x, y, -1, -1);
+                dest[out + 1] = corner(source, width, height, x, y, 1, -1);
+                dest[out + destWidth] = corner(source, width, height, x, y, -1, 1);
+                dest[out + destWidth + 1] = corner(source, width, height, x, y, 1, 1);
+            }
+        }
+    }
+}